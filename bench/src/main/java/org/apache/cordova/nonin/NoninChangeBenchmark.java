@@ -0,0 +1,73 @@
+package org.apache.cordova.nonin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the on-change delivery, setup prints how many packets of 10 minutes of the synthetic
+ * stream would cross the bridge with a keep-alive of 5 seconds
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoninChangeBenchmark {
+
+    private static final int STREAM_PACKETS = 3 * 600;
+
+    @Param({"spo2", "spo2,hr", "all"})
+    public String compared;
+
+    private NoninPacket[] packets;
+    private NoninChangeFilter filter;
+    private int next = 0;
+    private long now = 0;
+
+    @Setup
+    public void setup() {
+        byte[] stream = NoninStreams.format7(STREAM_PACKETS);
+        packets = new NoninPacket[STREAM_PACKETS];
+        for (int i = 0; i < STREAM_PACKETS; i++)
+            packets[i] = new NoninPacket(stream, i * NoninPacket.RAW_SIZE, NoninPacket.RAW_SIZE);
+        int fields = 0;
+        if (compared.equals("all")) {
+            fields = NoninChangeFilter.COMPARABLE_FIELDS;
+        } else {
+            for (String name : compared.split(","))
+                fields |= name.equals("hr") ? NoninPacketSerializer.FIELD_HR : NoninPacketSerializer.FIELD_SPO2;
+        }
+        filter = new NoninChangeFilter(fields, NoninChangeFilter.DEFAULT_KEEP_ALIVE);
+        int sent = 0;
+        for (int i = 0; i < STREAM_PACKETS; i++) {
+            if (filter.accept(packets[i], i * 1000L / 3))
+                sent++;
+        }
+        System.out.printf("%n%s: %d of %d packets sent, %.1f times fewer bridge calls%n",
+                compared, sent, STREAM_PACKETS, (double) STREAM_PACKETS / sent);
+        filter.reset();
+    }
+
+    /**
+     * Decides if one packet is sent
+     */
+    @Benchmark
+    public boolean accept() {
+        NoninPacket p = packets[next];
+        next = (next + 1) % STREAM_PACKETS;
+        now += 333;
+        return filter.accept(p, now);
+    }
+}
@@ -0,0 +1,110 @@
+package org.apache.cordova.nonin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compression ratio and throughput of NoninPacketCodec.
+ * Runs on a synthetic stream, smooth or with noise of 16 LSB, or on a recording made by NoninRecorder with -p recording=path
+ * The sizes are printed at setup, encode and decode go through the whole stream at each operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoninCodecBenchmark {
+
+    @Param({"synthetic", "noisy"})
+    public String recording;
+
+    private NoninPacket[] packets;
+    private byte[] encoded;
+    private int encodedLength;
+    private final NoninPacketCodec.Encoder encoder = new NoninPacketCodec.Encoder();
+    private final NoninPacketCodec.Decoder decoder = new NoninPacketCodec.Decoder();
+    private final NoninPacket decoded = new NoninPacket();
+
+    @Setup
+    public void setup() throws IOException {
+        final List<NoninPacket> list = new ArrayList<NoninPacket>();
+        NoninPacketListener collector = new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket packet) {
+                list.add(new NoninPacket(packet));
+            }
+        };
+        if (recording.equals("synthetic") || recording.equals("noisy")) {
+            int noise = recording.equals("noisy") ? 16 : 0;
+            new NoninParser(new ByteArrayInputStream(NoninStreams.format7(3 * 600, noise)), collector).run();
+        } else {
+            NoninRecordingTransport transport = new NoninRecordingTransport(new File(recording), NoninRecordingTransport.MAX_SPEED);
+            transport.open();
+            new NoninParser(transport.getInputStream(), collector, new NoninPacketPool(),
+                    transport.getFormat().createDecoder()).run();
+            transport.close();
+        }
+        packets = list.toArray(new NoninPacket[0]);
+        encoded = new byte[packets.length * NoninPacketCodec.MAX_ENCODED_SIZE];
+        encodedLength = encode();
+
+        // check that the decoding gives back the same frames
+        decode();
+        byte[] a = new byte[NoninPacket.RAW_SIZE];
+        byte[] b = new byte[NoninPacket.RAW_SIZE];
+        int pos = 0;
+        decoder.reset();
+        for (NoninPacket p : packets) {
+            pos += decoder.decode(encoded, pos, decoded);
+            int n = p.getRawBytes(a, 0);
+            if (n != decoded.getRawBytes(b, 0) || !java.util.Arrays.equals(a, b))
+                throw new IllegalStateException("The decoded packet differs from the original");
+        }
+
+        int raw = packets.length * NoninPacket.RAW_SIZE;
+        System.out.println(String.format("%s: %d packets, raw %d bytes, encoded %d bytes (%.1f per packet), ratio %.2f",
+                recording, packets.length, raw, encodedLength, encodedLength / (double) packets.length,
+                raw / (double) encodedLength));
+    }
+
+    /**
+     * Encodes all the packets
+     */
+    @Benchmark
+    public int encode() {
+        encoder.reset();
+        int pos = 0;
+        for (NoninPacket p : packets)
+            pos += encoder.encode(p, encoded, pos);
+        return pos;
+    }
+
+    /**
+     * Decodes all the packets
+     */
+    @Benchmark
+    public int decode() {
+        decoder.reset();
+        int pos = 0;
+        while (pos < encodedLength)
+            pos += decoder.decode(encoded, pos, decoded);
+        return pos;
+    }
+}
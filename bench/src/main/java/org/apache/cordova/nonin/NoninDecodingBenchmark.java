@@ -0,0 +1,119 @@
+package org.apache.cordova.nonin;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the decoding path, from bytes to the JSON or binary data sent to JavaScript.
+ * Run with -prof gc to get the allocation rate, for example:
+ * java -jar target/benchmarks.jar NoninDecodingBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoninDecodingBenchmark {
+
+    /**
+     * Number of packets in the parsed stream
+     */
+    private static final int STREAM_PACKETS = 100;
+
+    private byte[] frameBytes;
+    private NoninFrame[] frames;
+    private NoninPacket fullPacket;
+    private NoninPacket packet;
+    private byte[] stream;
+
+    @Setup
+    public void setup() {
+        stream = NoninStreams.format7(STREAM_PACKETS);
+        frameBytes = NoninStreams.frame(0x01, 32768, 97);
+        frames = new NoninFrame[NoninPacket.PACKETS_PER_FRAME];
+        int frameSize = NoninFrameSync.FRAME_SIZE;
+        byte[] frame = new byte[frameSize];
+        for (int i = 0; i < frames.length; i++) {
+            System.arraycopy(stream, i * frameSize, frame, 0, frameSize);
+            frames[i] = new NoninFrame(frame);
+        }
+        fullPacket = new NoninPacket();
+        for (NoninFrame f : frames)
+            fullPacket.addFrame(f);
+        packet = new NoninPacket();
+    }
+
+    @Benchmark
+    public boolean isValidFrame() {
+        return NoninFrame.IsValidFrame(frameBytes);
+    }
+
+    /**
+     * Fills a whole packet, 25 frames
+     */
+    @Benchmark
+    public NoninPacket addFrames() {
+        packet.clear();
+        for (NoninFrame f : frames)
+            packet.addFrame(f);
+        return packet;
+    }
+
+    @Benchmark
+    public NoninPacket copyPacket() {
+        return new NoninPacket(fullPacket);
+    }
+
+    @Benchmark
+    public int[] getPlethSamples() {
+        return fullPacket.getPlethSamples();
+    }
+
+    @Benchmark
+    public JSONObject toJSON() throws JSONException {
+        return NoninPacketSerializer.toJSON(fullPacket, 1500000000000L);
+    }
+
+    /**
+     * JSON with only SpO2 and HR, as requested by a display of numbers
+     */
+    @Benchmark
+    public JSONObject toJSONProjected() throws JSONException {
+        return NoninPacketSerializer.toJSON(fullPacket, 1500000000000L,
+                NoninPacketSerializer.FIELD_SPO2 | NoninPacketSerializer.FIELD_HR);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return NoninPacketSerializer.toBytes(fullPacket, 1500000000000L);
+    }
+
+    /**
+     * Parses a stream of STREAM_PACKETS packets
+     */
+    @Benchmark
+    public void parseStream(final Blackhole bh) {
+        NoninParser parser = new NoninParser(new ByteArrayInputStream(stream), new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket p) {
+                bh.consume(p);
+            }
+        });
+        parser.run();
+    }
+}
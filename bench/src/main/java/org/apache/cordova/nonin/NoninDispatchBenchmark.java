@@ -0,0 +1,76 @@
+package org.apache.cordova.nonin;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing throughput when the packets are handed to a dispatcher thread,
+ * with a handler that is either fast or slower than the parser.
+ * The maximum depth of the queue and the dropped packets are printed at the end of each iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoninDispatchBenchmark {
+
+    private static final int STREAM_PACKETS = 100;
+
+    /**
+     * Time spent by the handler for each packet, in microseconds
+     */
+    @Param({"0", "50"})
+    public int handlerMicros;
+
+    @Param({"16"})
+    public int capacity;
+
+    private byte[] stream;
+    private NoninDispatcher dispatcher;
+    private NoninPacketPool pool;
+
+    @Setup(Level.Iteration)
+    public void setup(final Blackhole bh) {
+        stream = NoninStreams.format7(STREAM_PACKETS);
+        dispatcher = new NoninDispatcher(new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket packet) {
+                bh.consume(packet.getSpO2Average());
+                if (handlerMicros > 0)
+                    Blackhole.consumeCPU(handlerMicros * 250L);
+            }
+        }, capacity);
+        pool = new NoninPacketPool(dispatcher.getQueueCapacity() + 2);
+        dispatcher.start(NoninStreamer.getExecutor(), "bench dispatcher");
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+        System.out.println("max depth " + dispatcher.getMaxQueueDepth() + ", dropped " + dispatcher.getDroppedCount()
+                + " of " + (dispatcher.getDroppedCount() + dispatcher.getEnqueuedCount())
+                + ", packets created " + pool.getCreatedCount());
+    }
+
+    @Benchmark
+    public void parseStream() {
+        new NoninParser(new ByteArrayInputStream(stream), dispatcher, pool).run();
+    }
+}
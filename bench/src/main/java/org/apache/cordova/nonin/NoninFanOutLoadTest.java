@@ -0,0 +1,112 @@
+package org.apache.cordova.nonin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load test of one device feeding several subscribers, as a live display, a recorder and an alarm
+ * subscribed to the same session, each one behind its own dispatcher with its own overflow policy.
+ * One subscriber is fast, the others are slower than the device, and one of them stalls for a second
+ * every five seconds. The device sends one packet per period (1/3 s divided by the speed up).
+ * Prints, for each subscriber, the packets delivered and dropped and the latency from the reading of
+ * a packet to its handling, and the longest time the device thread spent handing a packet to all of them,
+ * which does not depend on how slow the subscribers are.
+ *
+ * Usage: java -cp target/benchmarks.jar org.apache.cordova.nonin.NoninFanOutLoadTest [seconds] [speedup]
+ */
+public class NoninFanOutLoadTest {
+
+    private static final long PACKET_PERIOD_NANOS = 1000000000L / 3;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int speedup = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        // warm up the JIT
+        run(2, speedup, false);
+        run(seconds, speedup, true);
+    }
+
+    private static void run(int seconds, int speedup, boolean print) throws Exception {
+        long period = PACKET_PERIOD_NANOS / speedup;
+        List<Subscriber> subscribers = new ArrayList<Subscriber>();
+        subscribers.add(new Subscriber("fast, buffer", 0, 0, NoninDispatcher.Overflow.DROP_NEWEST, 16));
+        subscribers.add(new Subscriber("slow, latest", period * 3, 0, NoninDispatcher.Overflow.DROP_OLDEST, 1));
+        subscribers.add(new Subscriber("slow, dropOldest", period * 2, 0, NoninDispatcher.Overflow.DROP_OLDEST, 16));
+        subscribers.add(new Subscriber("stalling, buffer", 0, 1000000000L, NoninDispatcher.Overflow.DROP_NEWEST, 16));
+        for (Subscriber s : subscribers)
+            s.dispatcher.start(NoninStreamer.getExecutor(), "subscriber " + s.name);
+
+        NoninPacket source = new NoninPacket(NoninStreams.format7(1), 0, NoninPacket.RAW_SIZE);
+        NoninPacketPool pool = new NoninPacketPool();
+        long maxFanOut = 0;
+        int packets = 0;
+        long next = System.nanoTime();
+        long deadline = next + seconds * 1000000000L;
+        while (next < deadline) {
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            NoninPacket packet = pool.acquire();
+            packet.copyFrom(source);
+            long start = System.nanoTime();
+            packet.setReceivedTime(start);
+            for (Subscriber s : subscribers)
+                s.dispatcher.handle(packet);
+            maxFanOut = Math.max(maxFanOut, System.nanoTime() - start);
+            packet.release();
+            packets++;
+            next += period;
+        }
+        for (Subscriber s : subscribers)
+            s.dispatcher.stop();
+
+        if (!print)
+            return;
+        System.out.println(packets + " packets, longest fan out " + maxFanOut / 1000 + " us, packets created " + pool.getCreatedCount());
+        System.out.println("subscriber, delivered, dropped, max depth, latency p50 ms, p99 ms, max ms");
+        for (Subscriber s : subscribers)
+            System.out.println(s.name + ", " + s.dispatcher.getDispatchedCount() + ", " + s.dispatcher.getDroppedCount()
+                    + ", " + s.dispatcher.getMaxQueueDepth()
+                    + ", " + String.format("%.2f", s.latency.getPercentile(50) / 1e6)
+                    + ", " + String.format("%.2f", s.latency.getPercentile(99) / 1e6)
+                    + ", " + String.format("%.2f", s.latency.getMax() / 1e6));
+    }
+
+    /**
+     * A subscriber that spends some time on each packet and may stall every five seconds
+     */
+    private static class Subscriber implements NoninPacketListener {
+
+        private final String name;
+        private final long workNanos;
+        private final long stallNanos;
+        private final NoninDispatcher dispatcher;
+        private final NoninLatencyHistogram latency = new NoninLatencyHistogram();
+        private long lastStall = System.nanoTime();
+
+        Subscriber(String name, long workNanos, long stallNanos, NoninDispatcher.Overflow overflow, int capacity) {
+            this.name = name;
+            this.workNanos = workNanos;
+            this.stallNanos = stallNanos;
+            dispatcher = new NoninDispatcher(this, capacity);
+            dispatcher.setOverflow(overflow);
+        }
+
+        @Override
+        public void handle(NoninPacket packet) {
+            latency.record(System.nanoTime() - packet.getReceivedTime());
+            long pause = workNanos;
+            if (stallNanos > 0 && System.nanoTime() - lastStall > 5000000000L) {
+                pause += stallNanos;
+                lastStall = System.nanoTime();
+            }
+            if (pause > 0) {
+                try {
+                    Thread.sleep(pause / 1000000, (int) (pause % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
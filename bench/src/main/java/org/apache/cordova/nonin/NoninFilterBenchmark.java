@@ -0,0 +1,80 @@
+package org.apache.cordova.nonin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of filtering and decimating the PPG of a packet, and of the payloads that follow
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoninFilterBenchmark {
+
+    private static final int STREAM_PACKETS = 30;
+
+    @Param({"1", "3", "5"})
+    public int factor;
+
+    private NoninPacket[] packets;
+    private NoninPlethFilter filter;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        byte[] stream = NoninStreams.format7(STREAM_PACKETS);
+        packets = new NoninPacket[STREAM_PACKETS];
+        for (int i = 0; i < STREAM_PACKETS; i++)
+            packets[i] = new NoninPacket(stream, i * NoninPacket.RAW_SIZE, NoninPacket.RAW_SIZE);
+        filter = new NoninPlethFilter(factor);
+    }
+
+    private NoninPacket nextPacket() {
+        NoninPacket p = packets[next];
+        next = (next + 1) % STREAM_PACKETS;
+        return p;
+    }
+
+    /**
+     * Filters the PPG of one packet
+     */
+    @Benchmark
+    public int filter() {
+        return filter.filter(nextPacket());
+    }
+
+    /**
+     * Filters the PPG of one packet and builds its binary payload
+     */
+    @Benchmark
+    public byte[] filterToBytes() {
+        NoninPacket p = nextPacket();
+        int n = filter.filter(p);
+        return NoninPacketSerializer.toBytes(p, 0, NoninPacketSerializer.ALL_FIELDS, filter.getSamples(), n);
+    }
+
+    /**
+     * Filters the PPG of one packet and builds its JSON payload
+     */
+    @Benchmark
+    public void filterToJSON(Blackhole bh) throws Exception {
+        NoninPacket p = nextPacket();
+        int n = filter.filter(p);
+        bh.consume(NoninPacketSerializer.toJSON(p, 0, NoninPacketSerializer.ALL_FIELDS, filter.getSamples(), n).toString());
+    }
+}
@@ -0,0 +1,72 @@
+package org.apache.cordova.nonin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing and serializing one minute of data in each data format
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoninFormatBenchmark {
+
+    private static final int SECONDS = 60;
+
+    @Param({"D7", "D2", "D8", "D13"})
+    public String format;
+
+    private byte[] stream;
+    private NoninFormat dataFormat;
+
+    @Setup
+    public void setup() {
+        dataFormat = NoninFormat.fromName(format);
+        stream = NoninStreams.stream(dataFormat, SECONDS);
+        System.out.println(format + ": " + stream.length + " bytes per minute");
+    }
+
+    /**
+     * Parses one minute of stream
+     */
+    @Benchmark
+    public void parseMinute(final Blackhole bh) {
+        NoninParser parser = new NoninParser(new ByteArrayInputStream(stream), new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket p) {
+                bh.consume(p);
+            }
+        }, new NoninPacketPool(), dataFormat.createDecoder());
+        parser.run();
+    }
+
+    /**
+     * Parses one minute of stream and builds the binary payloads sent to JavaScript
+     */
+    @Benchmark
+    public void parseAndSerializeMinute(final Blackhole bh) {
+        NoninParser parser = new NoninParser(new ByteArrayInputStream(stream), new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket p) {
+                bh.consume(NoninPacketSerializer.toBytes(p, 0));
+            }
+        }, new NoninPacketPool(), dataFormat.createDecoder());
+        parser.run();
+    }
+}
@@ -0,0 +1,239 @@
+package org.apache.cordova.nonin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs thousands of start/stop cycles of a NoninStreamer and prints the latency of stop()
+ * and the number of live threads, to verify that stop is bounded and that no thread is leaked:
+ * once the idle threads of the pool have expired, no Nonin thread must be left and the live threads
+ * must be as many as before the cycles. Fails with an exception otherwise.
+ * Two stand-in devices are used: an in-memory replay, where the reader never blocks,
+ * and a local socket that streams slowly, where the reader is blocked in read() when stopped.
+ * A third run adds and removes subscribers while streaming, each one a dispatcher started on the
+ * threads shared with the streamers, as NoninSubscriber does.
+ *
+ * Usage: java -cp target/benchmarks.jar org.apache.cordova.nonin.NoninLifecycleTest [cycles]
+ */
+public class NoninLifecycleTest {
+
+    /**
+     * Longest wait for the idle threads of the pool to expire, a bit more than their keep alive
+     */
+    private static final long POOL_EXPIRY_MS = 15000;
+
+    public static void main(String[] args) throws Exception {
+        int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final byte[] stream = NoninStreams.format7(30);
+        int threadsBefore = Thread.activeCount();
+
+        run("replay", cycles, new TransportFactory() {
+            @Override
+            public NoninTransport create() {
+                return new NoninReplayTransport(stream, 0);
+            }
+        });
+
+        final StandInServer server = new StandInServer(stream);
+        server.start();
+        run("socket", cycles / 5, new TransportFactory() {
+            @Override
+            public NoninTransport create() {
+                return new NoninSocketTransport("localhost", server.getPort());
+            }
+        });
+        server.close();
+
+        runSubscribers(cycles / 5, stream);
+
+        int noninAfterStop = countNoninThreads();
+        long deadline = System.currentTimeMillis() + POOL_EXPIRY_MS;
+        while (countNoninThreads() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(100);
+        int noninThreads = countNoninThreads();
+        int threadsAfter = Thread.activeCount();
+        System.out.println("live threads before: " + threadsBefore + ", after: " + threadsAfter
+                + ", Nonin threads after the last stop: " + noninAfterStop + ", once the pool expired: " + noninThreads);
+        if (noninThreads > 0 || threadsAfter > threadsBefore)
+            throw new IllegalStateException("Threads leaked");
+    }
+
+    private interface TransportFactory {
+        NoninTransport create();
+    }
+
+    private static void run(String name, int cycles, TransportFactory factory) throws Exception {
+        long[] stopLatencies = new long[cycles];
+        final long[] packets = new long[1];
+        NoninPacketListener handler = new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket packet) {
+                packets[0]++;
+            }
+        };
+        int maxThreads = 0;
+        for (int i = 0; i < cycles; i++) {
+            NoninStreamer streamer = new NoninStreamer(factory.create(), handler);
+            streamer.start();
+            if (streamer.getState() != NoninStreamer.State.STREAMING)
+                throw new IllegalStateException("Not streaming after start");
+            // let it stream for a little while, sometimes
+            if (i % 10 == 0)
+                Thread.sleep(1);
+            long t = System.nanoTime();
+            streamer.stop();
+            stopLatencies[i] = System.nanoTime() - t;
+            if (streamer.getState() != NoninStreamer.State.IDLE)
+                throw new IllegalStateException("Not idle after stop");
+            maxThreads = Math.max(maxThreads, countNoninThreads());
+        }
+        Arrays.sort(stopLatencies);
+        System.out.println(name + ": " + cycles + " cycles, " + packets[0] + " packets"
+                + ", stop latency p50 " + stopLatencies[cycles / 2] / 1000
+                + " us, p99 " + stopLatencies[(int) (cycles * 0.99)] / 1000
+                + " us, max " + stopLatencies[cycles - 1] / 1000 + " us"
+                + ", max Nonin threads " + maxThreads);
+    }
+
+    /**
+     * Starts a streamer with subscribers, replaces one of them while streaming, as an unsubscribe
+     * followed by a subscribe, then stops everything
+     */
+    private static void runSubscribers(int cycles, byte[] stream) throws Exception {
+        final int subscribers = 3;
+        final long[] packets = new long[1];
+        final NoninPacketListener counter = new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket packet) {
+                packets[0]++;
+            }
+        };
+        final NoninDispatcher[] dispatchers = new NoninDispatcher[subscribers];
+        NoninPacketListener fanOut = new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket packet) {
+                synchronized (dispatchers) {
+                    for (NoninDispatcher d : dispatchers)
+                        d.handle(packet);
+                }
+            }
+        };
+        int maxThreads = 0;
+        int started = 0;
+        for (int i = 0; i < cycles; i++) {
+            synchronized (dispatchers) {
+                for (int j = 0; j < subscribers; j++) {
+                    dispatchers[j] = new NoninDispatcher(counter, NoninDispatcher.DEFAULT_CAPACITY);
+                    dispatchers[j].start(NoninStreamer.getExecutor(), "Nonin subscriber " + started++);
+                }
+            }
+            NoninStreamer streamer = new NoninStreamer(new NoninReplayTransport(stream, 0), fanOut);
+            streamer.start();
+            Thread.sleep(1);
+            NoninDispatcher replaced = new NoninDispatcher(counter, NoninDispatcher.DEFAULT_CAPACITY);
+            replaced.start(NoninStreamer.getExecutor(), "Nonin subscriber " + started++);
+            NoninDispatcher removed;
+            synchronized (dispatchers) {
+                removed = dispatchers[i % subscribers];
+                dispatchers[i % subscribers] = replaced;
+            }
+            removed.stop();
+            maxThreads = Math.max(maxThreads, countNoninThreads());
+            streamer.stop();
+            for (NoninDispatcher d : dispatchers)
+                d.stop();
+            maxThreads = Math.max(maxThreads, countNoninThreads());
+        }
+        System.out.println("subscribers: " + cycles + " cycles, " + started + " subscribers started, " + packets[0] + " packets"
+                + ", max Nonin threads " + maxThreads);
+    }
+
+    private static int countNoninThreads() {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("Nonin"))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Accepts connections and streams to each of them at real time (one packet every 1/3 s)
+     */
+    private static class StandInServer extends Thread {
+
+        private final ServerSocket server;
+        private final byte[] stream;
+        private final List<Socket> sockets = new ArrayList<Socket>();
+        private final List<Thread> writers = new ArrayList<Thread>();
+
+        StandInServer(byte[] stream) throws IOException {
+            super("stand-in server");
+            setDaemon(true);
+            this.stream = stream;
+            server = new ServerSocket(0);
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        /**
+         * Stops accepting, disconnects the clients and waits for all the threads of the server to end
+         */
+        void close() throws IOException, InterruptedException {
+            server.close();
+            join();
+            synchronized (writers) {
+                for (Socket s : sockets)
+                    s.close();
+                for (Thread t : writers)
+                    t.interrupt();
+            }
+            for (Thread t : writers)
+                t.join();
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    final Socket s = server.accept();
+                    Thread writer = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                OutputStream out = s.getOutputStream();
+                                for (int pos = 0; ; pos = (pos + NoninPacket.RAW_SIZE) % stream.length) {
+                                    out.write(stream, pos, NoninPacket.RAW_SIZE);
+                                    Thread.sleep(333);
+                                }
+                            } catch (Exception e) {
+                                //the client disconnected
+                            } finally {
+                                try {
+                                    s.close();
+                                } catch (IOException e) {
+                                    //nothing to do
+                                }
+                            }
+                        }
+                    }, "stand-in writer");
+                    writer.setDaemon(true);
+                    synchronized (writers) {
+                        sockets.add(s);
+                        writers.add(writer);
+                    }
+                    writer.start();
+                } catch (IOException e) {
+                    //closed
+                }
+            }
+        }
+    }
+}
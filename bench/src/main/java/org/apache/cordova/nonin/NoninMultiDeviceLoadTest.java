@@ -0,0 +1,183 @@
+package org.apache.cordova.nonin;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Load test with several devices streaming at the same time, each one with its own
+ * parser, dispatcher and handler, as when several sessions are started in the plugin.
+ * Every device sends one packet per period (1/3 s divided by the speed up).
+ * Prints, for each number of devices, the CPU time per device and the latency from the
+ * moment a packet is made available by the stream to the moment its JSON is ready.
+ *
+ * Usage: java -cp target/benchmarks.jar org.apache.cordova.nonin.NoninMultiDeviceLoadTest [seconds] [speedup] [devices...]
+ */
+public class NoninMultiDeviceLoadTest {
+
+    private static final long PACKET_PERIOD_NANOS = 1000000000L / 3;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int speedup = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int[] devicesCounts = {1, 2, 4, 8, 16};
+        if (args.length > 2) {
+            devicesCounts = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++)
+                devicesCounts[i - 2] = Integer.parseInt(args[i]);
+        }
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        mx.setThreadCpuTimeEnabled(true);
+        // warm up the JIT
+        run(mx, devicesCounts[devicesCounts.length - 1], 2, speedup, false);
+        System.out.println("devices, packets/device, CPU ms/device/s, latency p50 us, p99 us, max us, dropped");
+        for (int devices : devicesCounts)
+            run(mx, devices, seconds, speedup, true);
+    }
+
+    private static void run(ThreadMXBean mx, int devices, int seconds, int speedup, boolean print) throws Exception {
+        byte[] stream = NoninStreams.format7(300);
+        long deadline = System.nanoTime() + seconds * 1000000000L;
+        List<Device> list = new ArrayList<Device>();
+        for (int d = 0; d < devices; d++)
+            list.add(new Device(stream, PACKET_PERIOD_NANOS / speedup, deadline, "device " + d));
+        for (Device d : list)
+            d.start();
+        long cpu = 0;
+        int packets = 0;
+        long dropped = 0;
+        long[] latencies = new long[0];
+        for (Device d : list) {
+            d.join();
+            cpu += d.parserCpuNanos + d.handlerCpuNanos;
+            packets += d.latencyCount;
+            dropped += d.dispatcher.getDroppedCount();
+            int old = latencies.length;
+            latencies = Arrays.copyOf(latencies, old + d.latencyCount);
+            System.arraycopy(d.latencies, 0, latencies, old, d.latencyCount);
+        }
+        Arrays.sort(latencies);
+        if (print)
+            System.out.println(devices + ", " + packets / devices
+                    + ", " + String.format("%.2f", cpu / 1e6 / devices / seconds)
+                    + ", " + percentile(latencies, 0.5) / 1000
+                    + ", " + percentile(latencies, 0.99) / 1000
+                    + ", " + (latencies.length > 0 ? latencies[latencies.length - 1] / 1000 : 0)
+                    + ", " + dropped);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+    }
+
+    /**
+     * A simulated device with its own threads
+     */
+    private static class Device extends Thread implements NoninPacketListener {
+
+        private final PacedInputStream in;
+        private final NoninDispatcher dispatcher;
+        private final long[] latencies = new long[1 << 20];
+        private volatile int latencyCount = 0;
+        private long parserCpuNanos;
+        private long handlerCpuNanos;
+
+        Device(byte[] stream, long periodNanos, long deadline, String name) {
+            super(name + " parser");
+            in = new PacedInputStream(stream, periodNanos, deadline);
+            dispatcher = new NoninDispatcher(this, NoninDispatcher.DEFAULT_CAPACITY);
+            dispatcher.start(NoninStreamer.getExecutor(), name + " dispatcher");
+        }
+
+        @Override
+        public void run() {
+            ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+            long start = mx.getCurrentThreadCpuTime();
+            new NoninParser(in, dispatcher, new NoninPacketPool(dispatcher.getQueueCapacity() + 2)).run();
+            parserCpuNanos = mx.getCurrentThreadCpuTime() - start;
+            try {
+                // let the dispatcher deliver what is left
+                while (dispatcher.getQueueDepth() > 0)
+                    Thread.sleep(1);
+                dispatcher.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void handle(NoninPacket packet) {
+            ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+            long cpuStart = mx.getCurrentThreadCpuTime();
+            try {
+                // what the plugin does for each packet before handing it to Cordova
+                NoninPacketSerializer.toJSON(packet, System.currentTimeMillis()).toString();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            long now = System.nanoTime();
+            int n = latencyCount;
+            if (n < latencies.length) {
+                latencies[n] = now - in.emitted(n);
+                latencyCount = n + 1;
+            }
+            handlerCpuNanos += mx.getCurrentThreadCpuTime() - cpuStart;
+        }
+    }
+
+    /**
+     * Gives one packet per period, repeating the same stream, until the deadline
+     */
+    private static class PacedInputStream extends InputStream {
+
+        private static final int PACKET_BYTES = NoninPacket.RAW_SIZE;
+
+        private final byte[] stream;
+        private final long periodNanos;
+        private final long deadline;
+        private final long[] emitted = new long[1 << 20];
+        private int packets = 0;
+        private int position = 0;
+        private long next = System.nanoTime();
+
+        PacedInputStream(byte[] stream, long periodNanos, long deadline) {
+            this.stream = stream;
+            this.periodNanos = periodNanos;
+            this.deadline = deadline;
+        }
+
+        long emitted(int packet) {
+            return emitted[packet];
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+            if (System.nanoTime() > deadline || packets >= emitted.length)
+                return -1;
+            int n = Math.min(len, PACKET_BYTES);
+            System.arraycopy(stream, position, b, off, n);
+            position = (position + n) % stream.length;
+            emitted[packets++] = System.nanoTime();
+            next += periodNanos;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.apache.cordova.nonin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the automatic reconnection of a NoninStreamer against a stand-in device on a local socket,
+ * which streams in real time, drops the link every few packets and then refuses connections for
+ * an outage, as a device that goes out of range and comes back.
+ * Prints, for each outage, the time from the loss of the link to the first valid packet received by the
+ * handler, and the same time as counted by the streamer (NoninCounters.getReconnectNanos()).
+ * The time is the outage, plus the wait for the next attempt of the backoff, plus the first packet.
+ *
+ * Usage: java -cp target/benchmarks.jar org.apache.cordova.nonin.NoninReconnectTest [drops] [outages ms...]
+ */
+public class NoninReconnectTest {
+
+    private static final int PACKETS_PER_LINK = 6;
+
+    public static void main(String[] args) throws Exception {
+        int drops = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long[] outages = {0, 500, 2000};
+        if (args.length > 1) {
+            outages = new long[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                outages[i - 1] = Long.parseLong(args[i]);
+        }
+        System.out.println("outage ms, drops, reconnects, link loss to first packet p50 ms, max ms, counted by the streamer max ms");
+        for (long outage : outages)
+            run(drops, outage);
+    }
+
+    private static void run(int drops, long outage) throws Exception {
+        final StandInDevice device = new StandInDevice(NoninStreams.format7(30), outage);
+        final List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+        NoninPacketListener handler = new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket packet) {
+                long lost = device.takeLossTime();
+                if (lost != 0)
+                    times.add(packet.getReceivedTime() - lost);
+            }
+        };
+        NoninStreamer streamer = new NoninStreamer(new NoninSocketTransport("localhost", device.getPort()), handler);
+        streamer.setReconnect(new NoninBackoff());
+        device.start();
+        streamer.start();
+        while (device.getDrops() < drops || times.size() < drops)
+            Thread.sleep(100);
+        streamer.stop();
+        device.close();
+
+        List<Long> sorted = new ArrayList<Long>(times);
+        Collections.sort(sorted);
+        NoninCounters counters = streamer.getCounters();
+        System.out.println(outage + ", " + device.getDrops() + ", " + counters.getReconnects()
+                + ", " + sorted.get(sorted.size() / 2) / 1000000
+                + ", " + sorted.get(sorted.size() - 1) / 1000000
+                + ", " + counters.getMaxReconnectNanos() / 1000000);
+    }
+
+    /**
+     * Streams to one client at a time at real time (one packet every 1/3 s), closes the link after
+     * PACKETS_PER_LINK packets and stops listening for the outage
+     */
+    private static class StandInDevice extends Thread {
+
+        private final byte[] stream;
+        private final long outage;
+        private final int port;
+        private volatile boolean running = true;
+        private volatile ServerSocket server;
+        private volatile int drops = 0;
+        //System.nanoTime() of the last drop not yet followed by a packet, 0 if none
+        private volatile long lossTime = 0;
+
+        StandInDevice(byte[] stream, long outage) throws IOException {
+            super("stand-in device");
+            setDaemon(true);
+            this.stream = stream;
+            this.outage = outage;
+            server = listen(0);
+            port = server.getLocalPort();
+        }
+
+        private static ServerSocket listen(int port) throws IOException {
+            ServerSocket s = new ServerSocket();
+            s.setReuseAddress(true);
+            s.bind(new InetSocketAddress("localhost", port));
+            return s;
+        }
+
+        int getPort() {
+            return port;
+        }
+
+        int getDrops() {
+            return drops;
+        }
+
+        long takeLossTime() {
+            long t = lossTime;
+            lossTime = 0;
+            return t;
+        }
+
+        void close() throws IOException {
+            running = false;
+            server.close();
+        }
+
+        @Override
+        public void run() {
+            int pos = 0;
+            while (running) {
+                try {
+                    Socket s = server.accept();
+                    OutputStream out = s.getOutputStream();
+                    for (int i = 0; i < PACKETS_PER_LINK && running; i++) {
+                        out.write(stream, pos, NoninPacket.RAW_SIZE);
+                        pos = (pos + NoninPacket.RAW_SIZE) % stream.length;
+                        Thread.sleep(333);
+                    }
+                    if (!running)
+                        return;
+                    // out of range: the link is lost and nobody answers for a while
+                    server.close();
+                    s.close();
+                    lossTime = System.nanoTime();
+                    drops++;
+                    Thread.sleep(outage);
+                    server = listen(port);
+                } catch (Exception e) {
+                    //closed
+                }
+            }
+        }
+    }
+}
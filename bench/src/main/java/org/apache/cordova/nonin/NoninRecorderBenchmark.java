@@ -0,0 +1,77 @@
+package org.apache.cordova.nonin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording a packet with different flush policies.
+ * The timestamps advance by 1/3 s per packet, as from the device, so the time based policies
+ * write and force the file as often as they would in a real session.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoninRecorderBenchmark {
+
+    private static final int STREAM_PACKETS = 30;
+
+    /**
+     * flushInterval/syncInterval in ms
+     */
+    @Param({"1000/10000", "0/-1", "0/0"})
+    public String policy;
+
+    private NoninPacket[] packets;
+    private File directory;
+    private NoninRecorder recorder;
+    private int next = 0;
+    private long timestamp = 0;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        byte[] stream = NoninStreams.format7(STREAM_PACKETS);
+        packets = new NoninPacket[STREAM_PACKETS];
+        for (int i = 0; i < STREAM_PACKETS; i++)
+            packets[i] = new NoninPacket(stream, i * NoninPacket.RAW_SIZE, NoninPacket.RAW_SIZE);
+        directory = new File(System.getProperty("java.io.tmpdir"), "nonin-bench-" + System.nanoTime());
+        String[] intervals = policy.split("/");
+        recorder = new NoninRecorder(directory, "bench", 4 * 1024 * 1024,
+                Long.parseLong(intervals[0]), Long.parseLong(intervals[1]));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        recorder.close();
+        for (File f : recorder.getFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    /**
+     * Records one packet
+     */
+    @Benchmark
+    public void record() throws IOException {
+        recorder.record(packets[next], timestamp);
+        next = (next + 1) % STREAM_PACKETS;
+        timestamp += 333;
+    }
+}
@@ -0,0 +1,92 @@
+package org.apache.cordova.nonin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays recordings made by NoninRecorder through the same streamer, parser and dispatcher
+ * used with a device, and prints a summary of the packets and the replay throughput.
+ * The summary can be compared across versions to check that real data is still decoded the same.
+ * Without files, a synthetic recording of one hour is generated and replayed.
+ *
+ * Usage: java -cp target/benchmarks.jar org.apache.cordova.nonin.NoninRecordingReplay [speed] [files...]
+ * speed is 0 for maximum speed (default), 1 for real time, n for n times faster
+ */
+public class NoninRecordingReplay {
+
+    public static void main(String[] args) throws Exception {
+        double speed = args.length > 0 ? Double.parseDouble(args[0]) : NoninRecordingTransport.MAX_SPEED;
+        List<File> files = new ArrayList<File>();
+        for (int i = 1; i < args.length; i++)
+            files.add(new File(args[i]));
+        File directory = null;
+        if (files.isEmpty()) {
+            directory = new File(System.getProperty("java.io.tmpdir"), "nonin-replay-" + System.nanoTime());
+            files = record(directory, 3 * 3600);
+        }
+
+        // the first run warms up the JIT
+        if (speed == NoninRecordingTransport.MAX_SPEED)
+            replay(files, speed, false);
+        replay(files, speed, true);
+
+        if (directory != null) {
+            for (File f : files)
+                f.delete();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Writes a synthetic recording
+     */
+    private static List<File> record(File directory, int packets) throws Exception {
+        byte[] stream = NoninStreams.format7(packets);
+        NoninRecorder recorder = new NoninRecorder(directory, "synthetic");
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < packets; i++)
+            recorder.record(new NoninPacket(stream, i * NoninPacket.RAW_SIZE, NoninPacket.RAW_SIZE), timestamp + i * 1000L / 3);
+        recorder.close();
+        return recorder.getFiles();
+    }
+
+    private static void replay(List<File> files, double speed, boolean print) throws Exception {
+        NoninRecordingTransport transport = new NoninRecordingTransport(files, speed);
+        final long[] summary = new long[5];
+        NoninStreamer streamer = new NoninStreamer(transport, new NoninPacketListener() {
+            @Override
+            public void handle(NoninPacket packet) {
+                summary[0]++;
+                summary[1] += packet.getSpO2Average();
+                summary[2] += packet.getHRAverage();
+                summary[3] += packet.hasAnyArtifact() ? 1 : 0;
+                for (int i = 0; i < packet.getPlethSampleCount(); i++)
+                    summary[4] += packet.getPlethSample(i);
+            }
+        });
+        streamer.setFormat(transport.getFormat());
+        // no packet must be dropped, the replay is not paced by a device
+        streamer.setLossless(true);
+
+        long start = System.nanoTime();
+        streamer.start();
+        while (!streamer.hasReaderExited())
+            Thread.sleep(1);
+        streamer.stop();
+        long elapsed = System.nanoTime() - start;
+
+        if (!print)
+            return;
+        long packets = summary[0];
+        double seconds = elapsed / 1e9;
+        double recorded = packets / 3.0;
+        System.out.println(transport + ", format " + transport.getFormat() + ", speed " + speed);
+        System.out.println("packets " + packets + ", dropped " + streamer.getDispatcher().getDroppedCount()
+                + ", mean spo2 " + String.format("%.3f", summary[1] / (double) packets)
+                + ", mean hr " + String.format("%.3f", summary[2] / (double) packets)
+                + ", with artifacts " + summary[3] + ", PPG sum " + summary[4]);
+        System.out.println(String.format("replayed in %.3f s, %.0f packets/s, %.0fx real time",
+                seconds, packets / seconds, recorded / seconds));
+    }
+}
@@ -0,0 +1,210 @@
+package org.apache.cordova.nonin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of format 7 streams with injected errors: single bit errors, dropped bytes or bursts
+ * of random bytes as after a radio dropout, about one every 2000 bytes (5 seconds).
+ * Setup prints, for the number of frames needed to lock (0 for the decoder without lock used before),
+ * how many bytes pass from an error to the next correct packet, how many packets are delivered with
+ * missing frames, how many frames are lost and how many false packets (with values not sent by the device
+ * at that position) are delivered.
+ * The benchmark measures the time to decode the whole stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoninResyncBenchmark {
+
+    private static final int PACKETS = 3 * 600;
+    private static final int ERROR_INTERVAL = 2000;
+    private static final int BURST = 64;
+
+    @Param({"bits", "drops", "noise"})
+    public String errors;
+
+    @Param({"0", "1", "3"})
+    public int lockFrames;
+
+    private byte[] stream;
+    //positions of the errors in the stream
+    private int[] errorPositions;
+    private NoninDecoder decoder;
+    private final NoninPacket packet = new NoninPacket();
+
+    @Setup
+    public void setup() {
+        byte[] clean = NoninStreams.format7(PACKETS);
+        Set<String> sent = new HashSet<String>();
+        for (int i = 0; i < PACKETS; i++)
+            sent.add(Arrays.toString(Arrays.copyOfRange(clean, i * NoninPacket.RAW_SIZE, (i + 1) * NoninPacket.RAW_SIZE)));
+        stream = corrupt(clean, errors);
+
+        // byte by byte, to see when the first correct packet after each error is complete
+        NoninDecoder d = createDecoder(lockFrames);
+        NoninCounters counters = new NoninCounters();
+        d.setCounters(counters);
+        NoninPacket p = new NoninPacket();
+        byte[] raw = new byte[NoninPacket.RAW_SIZE];
+        int good = 0;
+        int partial = 0;
+        int partialFrames = 0;
+        int bad = 0;
+        int nextError = 0;
+        long recoveryBytes = 0;
+        int i = 0;
+        while (i < stream.length) {
+            // 0 if a packet was left by the previous byte
+            i += d.decode(stream, i, 1, p);
+            if (!p.isFull())
+                continue;
+            p.getRawBytes(raw, 0);
+            if (p.isComplete() && sent.contains(Arrays.toString(raw))) {
+                good++;
+                while (nextError < errorPositions.length && errorPositions[nextError] < i)
+                    recoveryBytes += i - errorPositions[nextError++];
+            } else if (!p.isComplete() && isSent(clean, p, raw)) {
+                partial++;
+                partialFrames += NoninPacket.PACKETS_PER_FRAME - Integer.bitCount(p.getMissingFrames());
+            } else {
+                bad++;
+            }
+            p.clear();
+        }
+        System.out.printf("%n%s, lock after %d frames: %d errors, next correct packet after %.0f bytes (%.0f ms at 375 B/s), "
+                        + "%d rejected frames, %d complete and %d partial packets, %d frames lost, %d false packets%n",
+                errors, lockFrames, errorPositions.length, (double) recoveryBytes / nextError,
+                recoveryBytes * 1000.0 / nextError / 375, counters.getRejectedFrames(), good, partial,
+                PACKETS * NoninPacket.PACKETS_PER_FRAME - good * NoninPacket.PACKETS_PER_FRAME - partialFrames, bad);
+        decoder = createDecoder(lockFrames);
+    }
+
+    /**
+     * Tells if all the frames of a partial packet were sent at their position in the same packet
+     */
+    private static boolean isSent(byte[] clean, NoninPacket p, byte[] raw) {
+        for (int start = 0; start < clean.length; start += NoninPacket.RAW_SIZE) {
+            boolean same = true;
+            for (int f = 0; f < NoninPacket.PACKETS_PER_FRAME && same; f++) {
+                if (!p.hasFrame(f))
+                    continue;
+                for (int b = 0; b < NoninFrameSync.FRAME_SIZE && same; b++)
+                    same = raw[f * NoninFrameSync.FRAME_SIZE + b] == clean[start + f * NoninFrameSync.FRAME_SIZE + b];
+            }
+            if (same)
+                return true;
+        }
+        return false;
+    }
+
+    private static NoninDecoder createDecoder(int lockFrames) {
+        return lockFrames > 0 ? new NoninFormat7Decoder(lockFrames) : new UnlockedDecoder();
+    }
+
+    /**
+     * The format 7 decoder used before the lock: any frame with a valid checksum is added to the packet
+     */
+    private static class UnlockedDecoder implements NoninDecoder {
+
+        private final NoninFrameSync sync = new NoninFrameSync();
+        private boolean inPacket = false;
+
+        @Override
+        public int decode(byte[] buffer, int offset, int length, NoninPacket packet) {
+            for (int i = 0; i < length; i++) {
+                if (!sync.push(buffer[offset + i]))
+                    continue;
+                if (sync.isSyncFrame()) {
+                    packet.clear();
+                    inPacket = true;
+                }
+                if (inPacket) {
+                    packet.addFrame(sync.getStatus(), sync.getPleth(), sync.getExtraStatus());
+                    if (packet.isFull()) {
+                        inPacket = false;
+                        return i + 1;
+                    }
+                }
+            }
+            return length;
+        }
+
+        @Override
+        public void reset() {
+            sync.reset();
+            inPacket = false;
+        }
+
+        @Override
+        public void setCounters(NoninCounters counters) {
+            sync.setCounters(counters);
+        }
+    }
+
+    /**
+     * Injects errors about every ERROR_INTERVAL bytes, and keeps their positions
+     */
+    private byte[] corrupt(byte[] clean, String errors) {
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(clean.length + clean.length / ERROR_INTERVAL * BURST);
+        int next = random.nextInt(2 * ERROR_INTERVAL);
+        int[] positions = new int[clean.length];
+        int count = 0;
+        for (int i = 0; i < clean.length; i++) {
+            if (i != next) {
+                out.write(clean[i]);
+                continue;
+            }
+            next += 1 + random.nextInt(2 * ERROR_INTERVAL);
+            positions[count++] = out.size();
+            if (errors.equals("bits")) {
+                out.write(clean[i] ^ (1 << random.nextInt(8)));
+            } else if (errors.equals("noise")) {
+                for (int j = 0; j < BURST; j++)
+                    out.write(random.nextInt(256));
+                out.write(clean[i]);
+            }
+            // drops: the byte is not written
+        }
+        errorPositions = Arrays.copyOf(positions, count);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the whole corrupted stream
+     */
+    @Benchmark
+    public int decode() {
+        decoder.reset();
+        int packets = 0;
+        int pos = 0;
+        while (pos < stream.length) {
+            pos += decoder.decode(stream, pos, stream.length - pos, packet);
+            if (packet.isFull()) {
+                packets++;
+                packet.clear();
+            }
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,75 @@
+package org.apache.cordova.nonin;
+
+import org.json.JSONArray;
+
+import java.util.Arrays;
+
+/**
+ * Checks that the PPG samples sent in JSON and in binary mode are the same once the binary data is
+ * decoded as www/android/nonin.js does, for a packet with a saturated sample (0xFFFF as sent by
+ * the device) and a missing frame, alone and in a batch.
+ * Prints the samples of both and fails with an exception if they differ.
+ *
+ * Usage: java -cp target/benchmarks.jar org.apache.cordova.nonin.NoninSerializerTest
+ */
+public class NoninSerializerTest {
+
+    private static final int SATURATED_FRAME = 2;
+    private static final int MISSING_FRAME = 5;
+
+    public static void main(String[] args) throws Exception {
+        byte[] raw = NoninStreams.format7(1);
+        int pos = SATURATED_FRAME * NoninFrameSync.FRAME_SIZE;
+        raw[pos + 1] = (byte) 0xFF;
+        raw[pos + 2] = (byte) 0xFF;
+        // bit 7 of the status clear: the frame was lost
+        raw[MISSING_FRAME * NoninFrameSync.FRAME_SIZE] = 0;
+        NoninPacket packet = new NoninPacket(raw, 0, NoninPacket.RAW_SIZE);
+        long now = System.currentTimeMillis();
+
+        int[] json = toArray(NoninPacketSerializer.toJSON(packet, now, NoninPacketSerializer.ALL_FIELDS).getJSONArray("PPG"));
+        int[] binary = decodePPG(NoninPacketSerializer.toBytes(packet, now), NoninPacketSerializer.BINARY_HEADER_SIZE,
+                NoninPacketSerializer.BINARY_HEADER_SIZE - 2, 2);
+        compare("packet", json, binary);
+
+        NoninBatch batch = new NoninBatch(2, 0);
+        batch.add(packet, now);
+        batch.add(packet, now);
+        json = toArray(batch.toJSON().getJSONArray("PPG"));
+        byte[] bytes = batch.toBytes();
+        int samplesPos = 4 + 17 * 2;
+        binary = decodePPG(bytes, samplesPos + 4, samplesPos, 4);
+        compare("batch", json, binary);
+    }
+
+    private static void compare(String name, int[] json, int[] binary) {
+        System.out.println(name + " JSON:   " + Arrays.toString(json));
+        System.out.println(name + " binary: " + Arrays.toString(binary));
+        if (!Arrays.equals(json, binary))
+            throw new IllegalStateException("The " + name + " PPG differs in JSON and binary mode");
+        if (json[SATURATED_FRAME] != NoninPacketSerializer.MAX_PPG_SAMPLE || json[MISSING_FRAME] != NoninPacket.INVALID_DATA)
+            throw new IllegalStateException("Wrong saturated or missing sample in the " + name);
+    }
+
+    private static int[] toArray(JSONArray array) throws Exception {
+        int[] r = new int[array.length()];
+        for (int i = 0; i < r.length; i++)
+            r[i] = array.getInt(i);
+        return r;
+    }
+
+    /**
+     * Decodes the samples as decodePPG in nonin.js: uint16, 0xFFFF is -1
+     */
+    private static int[] decodePPG(byte[] bytes, int pos, int countPos, int countSize) {
+        int count = 0;
+        for (int i = 0; i < countSize; i++)
+            count = (count << 8) | (bytes[countPos + i] & 0xFF);
+        int[] r = new int[count];
+        for (int i = 0; i < count; i++) {
+            int sample = ((bytes[pos + 2 * i] & 0xFF) << 8) | (bytes[pos + 2 * i + 1] & 0xFF);
+            r[i] = sample == 0xFFFF ? -1 : sample;
+        }
+        return r;
+    }
+}
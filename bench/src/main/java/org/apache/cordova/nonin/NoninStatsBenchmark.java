@@ -0,0 +1,73 @@
+package org.apache.cordova.nonin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the rolling statistics, on an 8 hours night at 3 packets per second with a desaturation
+ * of 5 points lasting 20 seconds every 2 minutes and the finger removed for 1 second every 10 minutes.
+ * Setup checks that all desaturations are found (240, ODI 30).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoninStatsBenchmark {
+
+    private static final int SECONDS = 8 * 3600;
+    private static final int PACKETS_PER_SECOND = 3;
+
+    private NoninPacket[] packets;
+    private long[] timestamps;
+    private NoninStats stats;
+
+    @Setup
+    public void setup() {
+        int n = SECONDS * PACKETS_PER_SECOND;
+        packets = new NoninPacket[n];
+        timestamps = new long[n];
+        for (int i = 0; i < n; i++) {
+            int second = i / PACKETS_PER_SECOND;
+            int spo2 = 96 + (i % 2);
+            if (second % 120 >= 60 && second % 120 < 80)
+                spo2 -= 5;
+            int hr = 60 + (second / 7) % 20;
+            if (second % 600 == 599) {
+                spo2 = NoninPacket.MISSING_SPO2;
+                hr = NoninPacket.MISSING_HR;
+            }
+            packets[i] = new NoninPacket();
+            packets[i].setTrend(0x80, (hr >> 7) & 0x03, hr & 0x7F, spo2, 0);
+            timestamps[i] = i * 1000L / PACKETS_PER_SECOND;
+        }
+        stats = new NoninStats();
+        night();
+        System.out.println("\n" + stats.getDesaturationCount() + " desaturations, ODI " + stats.getODI()
+                + ", baseline " + stats.getBaseline() + ", SpO2 " + stats.getSpO2Min() + "-" + stats.getSpO2Max());
+        if (stats.getDesaturationCount() != SECONDS / 120)
+            throw new IllegalStateException("Expected " + SECONDS / 120 + " desaturations");
+    }
+
+    /**
+     * Updates the statistics with all the packets of the night
+     */
+    @Benchmark
+    public int night() {
+        stats.reset();
+        for (int i = 0; i < packets.length; i++)
+            stats.update(packets[i], timestamps[i]);
+        return stats.getDesaturationCount();
+    }
+}
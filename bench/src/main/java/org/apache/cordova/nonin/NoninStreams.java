@@ -0,0 +1,168 @@
+package org.apache.cordova.nonin;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Builds synthetic streams of bytes as sent by a Nonin in the supported data formats
+ */
+public class NoninStreams {
+
+    /**
+     * Encodes a frame, checksum included
+     * @param status the status byte, bit 7 is always set
+     * @param pleth the 16-bit PPG sample
+     * @param extra the extra byte
+     * @return the 5 bytes of the frame
+     */
+    public static byte[] frame(int status, int pleth, int extra) {
+        byte[] frame = new byte[NoninFrameSync.FRAME_SIZE];
+        frame[0] = (byte) (status | 0x80);
+        frame[1] = (byte) (pleth >> 8);
+        frame[2] = (byte) pleth;
+        frame[3] = (byte) extra;
+        frame[4] = (byte) ((frame[0] & 0xFF) + (frame[1] & 0xFF) + (frame[2] & 0xFF) + (frame[3] & 0xFF));
+        return frame;
+    }
+
+    /**
+     * Gives the extra byte of a frame in a packet
+     * @param index position of the frame in the packet
+     * @param spo2 the SpO2 value
+     * @param hr the heart rate
+     * @param timer the 3 Hz timer
+     * @return the extra byte
+     */
+    public static int extra(int index, int spo2, int hr, int timer) {
+        switch (index) {
+            case NoninPacket.FrameLocation.HR_MSB:
+            case NoninPacket.FrameLocation.EXT_HR_MSB:
+            case NoninPacket.FrameLocation.HR_MSB_DISPLAY:
+            case NoninPacket.FrameLocation.EXT_HR_MSB_DISPLAY:
+                return (hr >> 7) & 0x03;
+            case NoninPacket.FrameLocation.HR_LSB:
+            case NoninPacket.FrameLocation.EXT_HR_LSB:
+            case NoninPacket.FrameLocation.HR_LSB_DISPLAY:
+            case NoninPacket.FrameLocation.EXT_HR_LSB_DISPLAY:
+                return hr & 0x7F;
+            case NoninPacket.FrameLocation.SPO2:
+            case NoninPacket.FrameLocation.SPO2_DISPLAY:
+            case NoninPacket.FrameLocation.SPO2_FAST:
+            case NoninPacket.FrameLocation.SPO2_BEAT_TO_BEAT:
+            case NoninPacket.FrameLocation.EXT_SPO2:
+            case NoninPacket.FrameLocation.EXT_SPO2_DISPLAY:
+                return spo2;
+            case NoninPacket.FrameLocation.TIMER_MSB:
+                return (timer >> 7) & 0x7F;
+            case NoninPacket.FrameLocation.TIMER_LSB:
+                return timer & 0x7F;
+            case NoninPacket.FrameLocation.SOFTWARE_REVISION:
+                return 42;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Builds a stream of packets with a smooth PPG wave and slowly changing SpO2 and HR
+     * @param packets number of packets
+     * @return the raw bytes
+     */
+    public static byte[] format7(int packets) {
+        return format7(packets, 0);
+    }
+
+    /**
+     * Builds a stream of packets with a PPG wave with random noise and slowly changing SpO2 and HR
+     * @param packets number of packets
+     * @param noise maximum amplitude of the noise added to the PPG
+     * @return the raw bytes
+     */
+    public static byte[] format7(int packets, int noise) {
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(packets * NoninPacket.PACKETS_PER_FRAME * NoninFrameSync.FRAME_SIZE);
+        int sample = 0;
+        for (int p = 0; p < packets; p++) {
+            int spo2 = 94 + (p / 10) % 5;
+            int hr = 60 + (p / 7) % 20;
+            int timer = p & 0x3FFF;
+            for (int f = 0; f < NoninPacket.PACKETS_PER_FRAME; f++) {
+                int status = (f == 0) ? 0x01 : 0x00;
+                int pleth = 32768 + (int) (8000 * Math.sin(2 * Math.PI * sample / 75.0));
+                if (noise > 0)
+                    pleth += random.nextInt(2 * noise + 1) - noise;
+                byte[] frame = frame(status, pleth, extra(f, spo2, hr, timer));
+                out.write(frame, 0, frame.length);
+                sample++;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds a stream of packets in format 2, same content as format7() with 8-bit PPG
+     * @param packets number of packets
+     * @return the raw bytes
+     */
+    public static byte[] format2(int packets) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(packets * NoninPacket.PACKETS_PER_FRAME * NoninFormat2Decoder.FRAME_SIZE);
+        int sample = 0;
+        for (int p = 0; p < packets; p++) {
+            int spo2 = 94 + (p / 10) % 5;
+            int hr = 60 + (p / 7) % 20;
+            int timer = p & 0x3FFF;
+            for (int f = 0; f < NoninPacket.PACKETS_PER_FRAME; f++) {
+                int status = 0x80 | ((f == 0) ? 0x01 : 0x00);
+                int pleth = 128 + (int) (100 * Math.sin(2 * Math.PI * sample / 75.0));
+                int extra = extra(f, spo2, hr, timer);
+                out.write(0x01);
+                out.write(status);
+                out.write(pleth);
+                out.write(extra);
+                out.write(0x01 + status + pleth + extra);
+                sample++;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds a stream of trend records in format 8 or 13
+     * @param records number of records, one per second
+     * @param extended true for format 13
+     * @return the raw bytes
+     */
+    public static byte[] trend(int records, boolean extended) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(records * 6);
+        for (int r = 0; r < records; r++) {
+            int spo2 = 94 + (r / 3) % 5;
+            int hr = 60 + (r / 2) % 20;
+            int[] record = extended ? new int[]{0x80, (hr >> 7) & 0x03, hr & 0x7F, spo2, 0, 0}
+                    : new int[]{0x80, (hr >> 7) & 0x03, hr & 0x7F, spo2};
+            if (extended)
+                record[5] = (record[0] + record[1] + record[2] + record[3] + record[4]) & 0xFF;
+            for (int b : record)
+                out.write(b);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds a stream in the given data format
+     * @param format the data format
+     * @param seconds duration of the stream at the rate of the device
+     * @return the raw bytes
+     */
+    public static byte[] stream(NoninFormat format, int seconds) {
+        switch (format) {
+            case D2:
+                return format2(seconds * 3);
+            case D8:
+                return trend(seconds, false);
+            case D13:
+                return trend(seconds, true);
+            default:
+                return format7(seconds * 3);
+        }
+    }
+}
@@ -7,17 +7,12 @@
 package org.apache.cordova.nonin;
 
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Set;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
-import android.os.ParcelUuid;
 import android.util.Log;
 
 
@@ -30,31 +25,21 @@ public class Nonin implements Serializable {
 
     private static final long serialVersionUID = 713444501843048481L;
 
-    public static interface NoninHandler {
-        public void handle(NoninPacket frame);
-    }
-
-    /**
-     * Tells if it's busy connected or connecting
-     */
-    private boolean busy;
     /**
-     * Used by the parsing thread
+     * Receives the packets from the device, on a dedicated dispatching thread.
+     * The packet passed to handle() is leased: once handle() returns it goes back
+     * to a pool and is overwritten by a later packet. A handler that needs the packet
+     * afterwards (for instance to process it on another thread) must call
+     * packet.retain() before returning and packet.release() when done, or keep a
+     * copy made with new NoninPacket(packet).
      */
-    private boolean keepparsing;
+    public static interface NoninHandler extends NoninPacketListener {
+    }
 
     /**
-     * GUI messages handler
+     * Runs the connection, parsing and dispatching
      */
-    private NoninHandler messageHandler;
-
-
-    //Bluetooth variable
-    private BluetoothAdapter mBluetoothAdapter = null;
-    private BluetoothSocket btSocket = null;
-    private OutputStream outStream = null;
-    private InputStream inStream = null;
-    private String deviceMACAddress = "";
+    private NoninStreamer streamer;
 
 
     /**
@@ -65,17 +50,23 @@ public class Nonin implements Serializable {
      * @param handler          the handler of the received packets
      */
     public Nonin(BluetoothAdapter btAdapter, String MacAddressDevice, NoninHandler handler) {
+        this(new NoninBluetoothTransport(btAdapter, MacAddressDevice), handler);
+    }
 
-        mBluetoothAdapter = btAdapter;
-
-        deviceMACAddress = MacAddressDevice;
-
-        this.messageHandler = handler;
+    /**
+     * Initialises the Nonin device over any transport.
+     *
+     * @param transport the channel to the device
+     * @param handler   the handler of the received packets
+     */
+    public Nonin(NoninTransport transport, NoninHandler handler) {
+        streamer = new NoninStreamer(transport, handler);
     }
 
     /**
      * Tells if the device, with specified address, has been bonded
-     * If the BT adapter is not enabled, it will always return false
+     * If the BT adapter is not enabled, it will always return false.
+     * Queries the adapter at each call, NoninDeviceRegistry caches the bonded devices
      * @param btAdapter a bluetooth adapter
      * @param address the specific address of the device
      * @return
@@ -94,160 +85,106 @@ public class Nonin implements Serializable {
     }
 
     /**
-     * Starts the device
+     * Starts the device, does nothing if already started
      */
-    public synchronized void start() throws IOException {
-        if (busy)
+    public void start() throws IOException {
+        if (streamer.getState() != NoninStreamer.State.IDLE)
             return;
 
-        Log.i(this.toString(), "Starting the device");
-        busy = true;
-        connect();
-        setDataMode("D7");
-        // Init state
-        keepparsing = true;
-        Parser parser = new Parser();
-        new Thread(parser).start();
-    }
-
-    private class Parser implements Runnable {
-
-        @Override
-        public void run() {
-            int PACKET_SIZE = 5;
-            //circular buffer of bytes
-            byte[] buffer = new byte[PACKET_SIZE];
-            //position used in the buffer
-            int buffPos = 0;
-            NoninPacket packet = new NoninPacket();
-            BufferedInputStream bufferIS = new BufferedInputStream(inStream);
-
-
-            while (keepparsing) {
-                if(buffPos >= PACKET_SIZE) {
-                    //move bytes backwards
-                    for (int k = 0; k < PACKET_SIZE-1; k++) {
-                        buffer[k] = buffer[k+1];
-                    }
-                    buffPos--;
-                }
-                try {
-                    buffer[buffPos] = (byte) (bufferIS.read() & 0xFF);
-                    buffPos++;
-                } catch (IOException ex) {
-                    //probably the connection was closed, nothing to worry about
-                    Log.d(Nonin.class.getName(), "IOException");
-                }
-
-                if (NoninFrame.IsValidFrame(buffer)) {
-                    // Process this packet
-                    if (NoninFrame.IsSyncFrame(buffer)) {
-                        // This packet must always be the first in the packet
-                        //Log.d(Nonin.class.getName(),"Got sync frame");
-                        packet = new NoninPacket();
-                    }
-                    if(packet != null){
-                        //Log.d(Nonin.class.getName(),"Got a frame");
-                        packet.addFrame(new NoninFrame(buffer));
-
-                        if (packet.isFull()) {
-                            //Log.d(Nonin.class.getName(),"Got full packet spo2:"+packet.getDisplayedSpO2Average()+" hr:"+packet.getDisplayedHRAverage()+" artifacts: "+packet.hasAnyArtifact());
-                            // Received a complete packet
-                            // send it and start a new packet
-                            if (messageHandler != null)
-                                messageHandler.handle(new NoninPacket(packet));
-                            packet = null;
-                        }
-                    }
-                }
-            }
-        }
+        Log.i(this.toString(), "Starting the device, connecting to: " + streamer.getTransport());
+        streamer.start();
+        Log.i(Nonin.class.toString(), "Sent " + streamer.getFormat() + " to the NONIN");
     }
 
     /**
-     * Stops the device
+     * Stops the device, returns when the reading thread has exited
      */
-    public synchronized void stop() {
+    public void stop() {
         Log.i(this.toString(), "Stopping the device");
-        busy = false;
-        keepparsing = false;
-        disconnect();
+        streamer.stop();
+        if (streamer.getError() != null)
+            Log.w(Nonin.class.getName(), "The stream failed", streamer.getError());
     }
 
     /**
-     * Tells if the device is connected or connecting
+     * Sets the data format requested to the device, applied at the next start()
+     * @param format the data format
      */
-    public synchronized boolean isActive() {
-        return busy;
+    public void setFormat(NoninFormat format) {
+        streamer.setFormat(format);
     }
 
     /**
-     * This create and setup the Bluetooth channel
-     *
-     * @return true if connection established
+     * Tells the data format requested to the device
+     * @return the data format
      */
-    private void connect() throws IOException {
-        Log.i(Nonin.class.toString(), "Connecting to: " + deviceMACAddress);
-
-        BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(deviceMACAddress);
-        ParcelUuid[] uuids = device.getUuids();
+    public NoninFormat getFormat() {
+        return streamer.getFormat();
+    }
 
-        btSocket = device.createInsecureRfcommSocketToServiceRecord(uuids[0].getUuid());
+    /**
+     * Makes the reader wait for the handler instead of dropping packets when the queue is full,
+     * for transports that are not paced by a device, applied at the next start()
+     * @param lossless true to never drop packets
+     */
+    public void setLossless(boolean lossless) {
+        streamer.setLossless(lossless);
+    }
 
-        btSocket.connect();
-        Log.i(Nonin.class.toString(), "Bluetooth connection established, data transfer link open.");
-        outStream = btSocket.getOutputStream();
-        inStream = btSocket.getInputStream();
+    /**
+     * Makes the connection be opened again when the link is lost, streaming resumes with the same handler
+     * @param backoff the delays between the attempts, null to stop when the link is lost
+     */
+    public void setReconnect(NoninBackoff backoff) {
+        streamer.setReconnect(backoff);
     }
 
+    /**
+     * Sets how many packets can wait for the handler before new ones are dropped,
+     * applied at the next start()
+     * @param capacity the capacity of the queue, rounded up to a power of 2
+     */
+    public void setDispatchQueueCapacity(int capacity) {
+        streamer.setDispatchQueueCapacity(capacity);
+    }
 
     /**
-     * If any I/O channel or the bluetooth socket are
-     * opened, it closes them
+     * Gives the dispatcher of the last session, with its queue counters
+     * @return the dispatcher, or null if never started
      */
-    private void disconnect() {
+    public NoninDispatcher getDispatcher() {
+        return streamer.getDispatcher();
+    }
 
-        try {
-            if (inStream != null)
-                inStream.close();
-            if (outStream != null)
-                outStream.close();
-            if (btSocket != null)
-                btSocket.close();
-        } catch (IOException e) {
-            Log.e(Nonin.class.toString(), "Couldn't disconnect easily", e);
-        }
+    /**
+     * Gives the counters of the parser and the dispatcher, summed over all the starts
+     * @return the counters
+     */
+    public NoninCounters getCounters() {
+        return streamer.getCounters();
     }
 
     /**
-     * This method is used to set the data mode of the device
-     *
-     * @param dataMode the datamode to set on the device
-     * @return
+     * Tells why the stream stopped
+     * @return the exception thrown by the stream while reading, or null
      */
-    private void setDataMode(String dataMode) throws IOException {
-
-        // Initialise the "init" packet
-        byte initPacket[] = new byte[6];
-        initPacket[0] = 0x02; // START
-        initPacket[1] = 0x70; // Op Code
-        initPacket[2] = 0x02; // Data Size
-        initPacket[3] = 0x02; // Data Type
-
-        if (dataMode.equalsIgnoreCase("D7")) {
-            initPacket[4] = 0x07;
-        } else if (dataMode.equalsIgnoreCase("D13")) {
-            initPacket[4] = 0x0D;
-        } else if (dataMode.equalsIgnoreCase("D8")) {
-            initPacket[4] = 0x08;
-        } else if (dataMode.equalsIgnoreCase("D2")) {
-            initPacket[4] = 0x02;
-        }
+    public IOException getError() {
+        return streamer.getError();
+    }
 
-        initPacket[5] = 0x03; // ETX
+    /**
+     * Tells the state of the connection
+     * @return the state
+     */
+    public NoninStreamer.State getState() {
+        return streamer.getState();
+    }
 
-        outStream.write(initPacket);
-        Log.i(Nonin.class.toString(), "Sent " + dataMode + " to the NONIN");
+    /**
+     * Tells if the device is connected or connecting
+     */
+    public boolean isActive() {
+        return streamer.getState() != NoninStreamer.State.IDLE;
     }
 
 }
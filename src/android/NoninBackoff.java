@@ -0,0 +1,97 @@
+package org.apache.cordova.nonin;
+
+import java.util.Random;
+
+/**
+ * Delays between attempts to reconnect: exponential, doubling from the initial delay up to the maximum,
+ * each one shortened by a random part of up to half, so that devices that lost the link at the same time
+ * do not all retry at the same moment.
+ *
+ * @author Dario Salvi
+ */
+public class NoninBackoff {
+
+    /**
+     * Default delay before the first attempt, in ms
+     */
+    public static final long DEFAULT_INITIAL_DELAY = 250;
+    /**
+     * Default longest delay between two attempts, in ms
+     */
+    public static final long DEFAULT_MAX_DELAY = 30000;
+
+    //part of the delay that is random
+    private static final double JITTER = 0.5;
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+    private final Random random;
+    private int attempts = 0;
+
+    /**
+     * Creates the backoff with the default delays and no limit of attempts
+     */
+    public NoninBackoff() {
+        this(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, 0);
+    }
+
+    /**
+     * Creates the backoff
+     * @param initialDelay delay before the first attempt, in ms
+     * @param maxDelay longest delay between two attempts, in ms
+     * @param maxAttempts attempts before giving up, 0 for no limit
+     * @throws IllegalArgumentException if a value is negative or the maximum is below the initial delay
+     */
+    public NoninBackoff(long initialDelay, long maxDelay, int maxAttempts) {
+        this(initialDelay, maxDelay, maxAttempts, new Random());
+    }
+
+    /**
+     * Creates the backoff
+     * @param initialDelay delay before the first attempt, in ms
+     * @param maxDelay longest delay between two attempts, in ms
+     * @param maxAttempts attempts before giving up, 0 for no limit
+     * @param random source of the jitter
+     * @throws IllegalArgumentException if a value is negative or the maximum is below the initial delay
+     */
+    public NoninBackoff(long initialDelay, long maxDelay, int maxAttempts, Random random) {
+        if (initialDelay < 0 || maxDelay < initialDelay || maxAttempts < 0)
+            throw new IllegalArgumentException("Wrong backoff: initial delay " + initialDelay + ", max delay " + maxDelay
+                    + ", max attempts " + maxAttempts);
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+    }
+
+    /**
+     * Gives the delay before the next attempt and counts the attempt
+     * @return the delay in ms, -1 if no attempt is left
+     */
+    public long nextDelay() {
+        if (maxAttempts > 0 && attempts >= maxAttempts)
+            return -1;
+        long delay = maxDelay;
+        // the shift is bounded so that it cannot overflow
+        if (attempts < 32 && initialDelay << attempts < maxDelay)
+            delay = initialDelay << attempts;
+        attempts++;
+        return delay - (long) (delay * JITTER * random.nextDouble());
+    }
+
+    /**
+     * Starts again from the initial delay, after a successful attempt
+     */
+    public void reset() {
+        attempts = 0;
+    }
+
+    /**
+     * Attempts made since the last reset
+     * @return the number of attempts
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+}
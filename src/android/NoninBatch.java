@@ -0,0 +1,248 @@
+package org.apache.cordova.nonin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Accumulates the values of several packets so that they can be sent to JavaScript at once.
+ * The batch is ready when it holds a number of packets or when its first packet is older than
+ * a time window, whichever comes first. The age is checked when packets are added, and by the owner
+ * of the batch at getDeadline(), so that the window is an upper bound also when packets stop arriving.
+ * The PPG samples of all the packets are concatenated into a single array.
+ *
+ * @author Dario Salvi
+ */
+public class NoninBatch {
+
+    /**
+     * Size in the binary layout of each reading
+     */
+    private static final int BINARY_READING_SIZE = 17;
+
+    private final int maxPackets;
+    private final long maxInterval;
+    private final int fields;
+
+    private int count = 0;
+    private int[] flags;
+    private int[] missing;
+    private int[] spo2;
+    private int[] instantSpo2;
+    private int[] hr;
+    private int[] timer;
+    private long[] timestamps;
+    private int samplesCount = 0;
+    private int[] samples;
+
+    /**
+     * Creates an empty batch with all the fields
+     * @param maxPackets the batch is ready when it contains this number of packets, 0 for no limit
+     * @param maxInterval the batch is ready when its first packet is older than this (ms), 0 for no limit
+     */
+    public NoninBatch(int maxPackets, long maxInterval) {
+        this(maxPackets, maxInterval, NoninPacketSerializer.ALL_FIELDS);
+    }
+
+    /**
+     * Creates an empty batch
+     * @param maxPackets the batch is ready when it contains this number of packets, 0 for no limit
+     * @param maxInterval the batch is ready when its first packet is older than this (ms), 0 for no limit
+     * @param fields the projection, a combination of NoninPacketSerializer.FIELD_ constants
+     */
+    public NoninBatch(int maxPackets, long maxInterval, int fields) {
+        if (maxPackets <= 0 && maxInterval <= 0)
+            throw new IllegalArgumentException("A batch needs a size or an interval");
+        this.maxPackets = maxPackets;
+        this.maxInterval = maxInterval;
+        this.fields = fields;
+        allocate(maxPackets > 0 ? maxPackets : 8);
+    }
+
+    private void allocate(int packets) {
+        flags = new int[packets];
+        missing = new int[packets];
+        spo2 = new int[packets];
+        instantSpo2 = new int[packets];
+        hr = new int[packets];
+        timer = new int[packets];
+        timestamps = new long[packets];
+        samples = new int[packets * NoninPacket.PACKETS_PER_FRAME];
+    }
+
+    private void grow() {
+        int[] oldFlags = flags, oldMissing = missing, oldSpo2 = spo2, oldInstantSpo2 = instantSpo2, oldHr = hr, oldTimer = timer, oldSamples = samples;
+        long[] oldTimestamps = timestamps;
+        allocate(2 * flags.length);
+        System.arraycopy(oldFlags, 0, flags, 0, count);
+        System.arraycopy(oldMissing, 0, missing, 0, count);
+        System.arraycopy(oldSpo2, 0, spo2, 0, count);
+        System.arraycopy(oldInstantSpo2, 0, instantSpo2, 0, count);
+        System.arraycopy(oldHr, 0, hr, 0, count);
+        System.arraycopy(oldTimer, 0, timer, 0, count);
+        System.arraycopy(oldTimestamps, 0, timestamps, 0, count);
+        System.arraycopy(oldSamples, 0, samples, 0, samplesCount);
+    }
+
+    /**
+     * Copies the values of a packet into the batch, the packet is not kept
+     * @param packet the packet
+     * @param timestamp ms since 1970 when the packet was received
+     */
+    public void add(NoninPacket packet, long timestamp) {
+        add(packet, timestamp, null, 0);
+    }
+
+    /**
+     * Copies the values of a packet into the batch, with PPG samples given separately,
+     * for example filtered by NoninPlethFilter. The packet and the samples are not kept.
+     * @param packet the packet
+     * @param timestamp ms since 1970 when the packet was received
+     * @param ppg the PPG samples to add, null to add those of the packet
+     * @param ppgCount number of samples in ppg
+     */
+    public void add(NoninPacket packet, long timestamp, int[] ppg, int ppgCount) {
+        if (count == flags.length)
+            grow();
+        flags[count] = NoninPacketSerializer.getFlags(packet, fields);
+        missing[count] = packet.getMissingFrames();
+        spo2[count] = has(NoninPacketSerializer.FIELD_SPO2) ? packet.getSpO2Average() : NoninPacket.INVALID_DATA;
+        instantSpo2[count] = has(NoninPacketSerializer.FIELD_INSTANT_SPO2) ? packet.getBeatToBeatSpO2() : NoninPacket.INVALID_DATA;
+        hr[count] = has(NoninPacketSerializer.FIELD_HR) ? packet.getHRAverage() : NoninPacket.INVALID_DATA;
+        timer[count] = has(NoninPacketSerializer.FIELD_TIMER) ? packet.getTimer() : NoninPacket.INVALID_DATA;
+        timestamps[count] = timestamp;
+        count++;
+        int n = !has(NoninPacketSerializer.FIELD_PPG) ? 0 : (ppg != null ? ppgCount : packet.getPlethSampleCount());
+        if (samplesCount + n > samples.length)
+            grow();
+        for (int i = 0; i < n; i++)
+            samples[samplesCount++] = ppg != null ? ppg[i] : NoninPacketSerializer.getPlethSample(packet, i);
+    }
+
+    private boolean has(int field) {
+        return (fields & field) != 0;
+    }
+
+    /**
+     * Tells if the batch should be sent
+     * @param now the current time, in ms since 1970
+     * @return true if the batch is full or its first packet is older than the interval
+     */
+    public boolean isReady(long now) {
+        if (count == 0)
+            return false;
+        return (maxPackets > 0 && count >= maxPackets) ||
+                (maxInterval > 0 && now - timestamps[0] >= maxInterval);
+    }
+
+    /**
+     * When the batch becomes ready by age
+     * @return ms since 1970, Long.MAX_VALUE if the batch is empty or has no time window
+     */
+    public long getDeadline() {
+        if (count == 0 || maxInterval <= 0)
+            return Long.MAX_VALUE;
+        return timestamps[0] + maxInterval;
+    }
+
+    /**
+     * Number of packets in the batch
+     * @return the number of packets
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Empties the batch, keeping the allocated memory
+     */
+    public void clear() {
+        count = 0;
+        samplesCount = 0;
+    }
+
+    /**
+     * Builds the JSON representation of the batch:
+     * data.readings -> array of packets, as in NoninPacketSerializer.toJSON() but without PPG
+     * (with missing, if some frames are missing)
+     * data.PPG -> the PPG samples of all the packets, concatenated
+     * Only the requested fields are included.
+     *
+     * @return the JSON object
+     * @throws JSONException if the object cannot be built
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONArray readings = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            JSONObject r = new JSONObject();
+            if (has(NoninPacketSerializer.FIELD_SPO2))
+                r.put("spo2", spo2[i]);
+            if (has(NoninPacketSerializer.FIELD_INSTANT_SPO2))
+                r.put("instantSpo2", instantSpo2[i]);
+            if (has(NoninPacketSerializer.FIELD_HR))
+                r.put("hr", hr[i]);
+            if (has(NoninPacketSerializer.FIELD_TIMESTAMP))
+                r.put("timestamp", timestamps[i]);
+            if (has(NoninPacketSerializer.FIELD_TIMER))
+                r.put("timer", timer[i]);
+            if (has(NoninPacketSerializer.FIELD_ARTIFACTS))
+                r.put("hasArtifacts", (flags[i] & NoninPacketSerializer.FLAG_ARTIFACTS) != 0);
+            if (has(NoninPacketSerializer.FIELD_SUSTAINED_ARTIFACTS))
+                r.put("hasSustainedArtifacts", (flags[i] & NoninPacketSerializer.FLAG_SUSTAINED_ARTIFACTS) != 0);
+            if (has(NoninPacketSerializer.FIELD_NOFINGER))
+                r.put("nofinger", (flags[i] & NoninPacketSerializer.FLAG_SENSOR_ALARM) != 0);
+            if (has(NoninPacketSerializer.FIELD_BATTERY_LOW))
+                r.put("batterylow", (flags[i] & NoninPacketSerializer.FLAG_BATTERY_LOW) != 0);
+            if (has(NoninPacketSerializer.FIELD_SENSOR_ALARM))
+                r.put("sensorAlarm", (flags[i] & NoninPacketSerializer.FLAG_SENSOR_ALARM) != 0);
+            if (has(NoninPacketSerializer.FIELD_SMART_POINT))
+                r.put("smartPoint", (flags[i] & NoninPacketSerializer.FLAG_SMART_POINT) != 0);
+            if (missing[i] != 0)
+                r.put("missing", NoninPacketSerializer.toPositions(missing[i]));
+            readings.put(r);
+        }
+        JSONObject r = new JSONObject();
+        r.put("readings", readings);
+        if (has(NoninPacketSerializer.FIELD_PPG)) {
+            JSONArray ppg = new JSONArray();
+            for (int i = 0; i < samplesCount; i++)
+                ppg.put(samples[i]);
+            r.put("PPG", ppg);
+        }
+        return r;
+    }
+
+    /**
+     * Builds the binary representation of the batch, in big endian order:
+     * offset 0, uint8: BINARY_BATCH_VERSION
+     * offset 1, uint8: reserved
+     * offset 2, uint16: number of readings (r)
+     * then r readings of 17 bytes each, same fields as the single packet layout from offset 1 to 17:
+     *   uint8 flags, int16 spo2, int16 instantSpo2, int16 hr, int16 timer, float64 timestamp
+     * then uint32: number of PPG samples (n)
+     * then n x uint16: PPG samples of all the packets, 0xFFFF for those of the missing frames
+     * The fields that are not requested are set to NoninPacket.INVALID_DATA, or 0 for the flags.
+     *
+     * @return the bytes
+     */
+    public byte[] toBytes() {
+        int readingsEnd = 4 + count * BINARY_READING_SIZE;
+        byte[] buffer = new byte[readingsEnd + 4 + 2 * samplesCount];
+        buffer[0] = (byte) NoninPacketSerializer.BINARY_BATCH_VERSION;
+        NoninPacketSerializer.putShort(buffer, 2, count);
+        for (int i = 0; i < count; i++) {
+            int pos = 4 + i * BINARY_READING_SIZE;
+            buffer[pos] = (byte) flags[i];
+            NoninPacketSerializer.putShort(buffer, pos + 1, spo2[i]);
+            NoninPacketSerializer.putShort(buffer, pos + 3, instantSpo2[i]);
+            NoninPacketSerializer.putShort(buffer, pos + 5, hr[i]);
+            NoninPacketSerializer.putShort(buffer, pos + 7, timer[i]);
+            NoninPacketSerializer.putLong(buffer, pos + 9, Double.doubleToLongBits(
+                    has(NoninPacketSerializer.FIELD_TIMESTAMP) ? timestamps[i] : NoninPacket.INVALID_DATA));
+        }
+        NoninPacketSerializer.putInt(buffer, readingsEnd, samplesCount);
+        for (int i = 0; i < samplesCount; i++)
+            NoninPacketSerializer.putShort(buffer, readingsEnd + 4 + 2 * i, samples[i]);
+        return buffer;
+    }
+}
@@ -0,0 +1,154 @@
+package org.apache.cordova.nonin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+/**
+ * Transport over a Bluetooth RFCOMM (Serial Port Profile) socket.
+ * The service UUID that last worked with a device is remembered and tried first, so that
+ * reconnecting does not depend on the UUIDs cached by the last service discovery (SDP),
+ * which can be missing or stale; then the standard SPP UUID and those of the discovery are tried.
+ *
+ * @author Dario Salvi
+ */
+public class NoninBluetoothTransport implements NoninTransport {
+
+    /**
+     * UUID of the Serial Port Profile, the service of the Nonin devices
+     */
+    public static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    //service UUID that last connected, by normalised address of the device
+    private static final Map<String, UUID> lastUuids = new ConcurrentHashMap<String, UUID>();
+
+    private final BluetoothAdapter mBluetoothAdapter;
+    private final String deviceMACAddress;
+    private volatile BluetoothSocket btSocket = null;
+    private OutputStream outStream = null;
+    private InputStream inStream = null;
+    //set when streaming is stopped, so that an aborted connection does not go on with the next UUID
+    private volatile boolean aborted = false;
+
+    /**
+     * Creates the transport, the connection is done in open()
+     *
+     * @param btAdapter        the bluetooth adapter
+     * @param MacAddressDevice the address of the device
+     */
+    public NoninBluetoothTransport(BluetoothAdapter btAdapter, String MacAddressDevice) {
+        mBluetoothAdapter = btAdapter;
+        deviceMACAddress = MacAddressDevice;
+    }
+
+    /**
+     * This create and setup the Bluetooth channel
+     */
+    @Override
+    public void open() throws IOException {
+        Log.i(NoninBluetoothTransport.class.toString(), "Connecting to: " + deviceMACAddress);
+
+        inStream = null;
+        outStream = null;
+        BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(deviceMACAddress);
+        // discovery slows down the connection
+        mBluetoothAdapter.cancelDiscovery();
+
+        IOException error = null;
+        for (UUID uuid : candidateUuids(device)) {
+            if (aborted)
+                throw new IOException("Connection to " + deviceMACAddress + " aborted");
+            BluetoothSocket socket = null;
+            try {
+                socket = device.createInsecureRfcommSocketToServiceRecord(uuid);
+                // visible to close(), which aborts the connect
+                btSocket = socket;
+                socket.connect();
+            } catch (IOException e) {
+                error = e;
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException ce) {
+                        //nothing more can be done
+                    }
+                }
+                btSocket = null;
+                continue;
+            }
+            lastUuids.put(NoninDeviceRegistry.normalise(deviceMACAddress), uuid);
+            Log.i(NoninBluetoothTransport.class.toString(), "Bluetooth connection established with " + uuid + ", data transfer link open.");
+            outStream = btSocket.getOutputStream();
+            inStream = btSocket.getInputStream();
+            return;
+        }
+        throw error != null ? error : new IOException("No service to connect to on " + deviceMACAddress);
+    }
+
+    /**
+     * Lists the service UUIDs to be tried, the one that last worked first
+     */
+    private List<UUID> candidateUuids(BluetoothDevice device) {
+        List<UUID> uuids = new ArrayList<UUID>();
+        UUID last = lastUuids.get(NoninDeviceRegistry.normalise(deviceMACAddress));
+        if (last != null)
+            uuids.add(last);
+        if (!uuids.contains(SPP_UUID))
+            uuids.add(SPP_UUID);
+        // results of the last service discovery, null if there was none
+        ParcelUuid[] discovered = device.getUuids();
+        if (discovered != null) {
+            for (ParcelUuid u : discovered) {
+                if (u != null && !uuids.contains(u.getUuid()))
+                    uuids.add(u.getUuid());
+            }
+        }
+        return uuids;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outStream;
+    }
+
+    /**
+     * If any I/O channel or the bluetooth socket are
+     * opened, it closes them
+     */
+    @Override
+    public void close() throws IOException {
+        if (inStream != null)
+            inStream.close();
+        if (outStream != null)
+            outStream.close();
+        BluetoothSocket socket = btSocket;
+        if (socket != null)
+            socket.close();
+    }
+
+    @Override
+    public void setAborted(boolean aborted) {
+        this.aborted = aborted;
+    }
+
+    @Override
+    public String toString() {
+        return "Bluetooth " + deviceMACAddress;
+    }
+}
@@ -0,0 +1,93 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Decides which packets are sent when only changes are wanted: a packet passes if one of
+ * the chosen fields differs from the last packet that passed, or if nothing has passed for
+ * keepAlive ms. Only the chosen fields are computed.
+ * Timestamp, timer and PPG change with every packet and cannot be chosen.
+ *
+ * @author Dario Salvi
+ */
+public class NoninChangeFilter {
+
+    /**
+     * Fields that can be compared, a combination of the NoninPacketSerializer.FIELD_ constants
+     */
+    public static final int COMPARABLE_FIELDS = NoninPacketSerializer.ALL_FIELDS
+            & ~(NoninPacketSerializer.FIELD_TIMESTAMP | NoninPacketSerializer.FIELD_TIMER | NoninPacketSerializer.FIELD_PPG);
+
+    public static final long DEFAULT_KEEP_ALIVE = 5000;
+
+    private final int fields;
+    private final long keepAlive;
+
+    private boolean started = false;
+    private long lastSent;
+    private int spo2;
+    private int instantSpo2;
+    private int hr;
+    private int flags;
+
+    /**
+     * Creates the filter
+     * @param fields the fields compared, a combination of the NoninPacketSerializer.FIELD_ constants
+     * @param keepAlive a packet passes at least every this number of ms, 0 for never
+     * @throws IllegalArgumentException if the fields cannot be compared or the keep-alive is negative
+     */
+    public NoninChangeFilter(int fields, long keepAlive) {
+        if ((fields & ~COMPARABLE_FIELDS) != 0)
+            throw new IllegalArgumentException("Timestamp, timer and PPG cannot be compared");
+        if (keepAlive < 0)
+            throw new IllegalArgumentException("The keep-alive cannot be negative");
+        this.fields = fields;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Tells if a packet must be sent, packets must be given in the order they are received
+     * @param packet the packet
+     * @param timestamp ms when the packet was received
+     * @return true if the packet changed or the keep-alive is due
+     */
+    public boolean accept(NoninPacket packet, long timestamp) {
+        int s = (fields & NoninPacketSerializer.FIELD_SPO2) != 0 ? packet.getSpO2Average() : 0;
+        int i = (fields & NoninPacketSerializer.FIELD_INSTANT_SPO2) != 0 ? packet.getBeatToBeatSpO2() : 0;
+        int h = (fields & NoninPacketSerializer.FIELD_HR) != 0 ? packet.getHRAverage() : 0;
+        int f = flags(packet);
+        if (started && s == spo2 && i == instantSpo2 && h == hr && f == flags
+                && (keepAlive == 0 || timestamp - lastSent < keepAlive))
+            return false;
+        started = true;
+        lastSent = timestamp;
+        spo2 = s;
+        instantSpo2 = i;
+        hr = h;
+        flags = f;
+        return true;
+    }
+
+    /**
+     * Forgets the last packet sent, the next one passes
+     */
+    public void reset() {
+        started = false;
+    }
+
+    /**
+     * Collects the chosen boolean fields, each one in the bit of its field
+     */
+    private int flags(NoninPacket packet) {
+        int f = 0;
+        if ((fields & NoninPacketSerializer.FIELD_ARTIFACTS) != 0 && packet.hasAnyArtifact())
+            f |= NoninPacketSerializer.FIELD_ARTIFACTS;
+        if ((fields & NoninPacketSerializer.FIELD_SUSTAINED_ARTIFACTS) != 0 && packet.hasAnyOutOfTrack())
+            f |= NoninPacketSerializer.FIELD_SUSTAINED_ARTIFACTS;
+        if ((fields & (NoninPacketSerializer.FIELD_NOFINGER | NoninPacketSerializer.FIELD_SENSOR_ALARM)) != 0 && packet.hasAnySensorAlarm())
+            f |= NoninPacketSerializer.FIELD_SENSOR_ALARM;
+        if ((fields & NoninPacketSerializer.FIELD_BATTERY_LOW) != 0 && packet.isBatteryLow())
+            f |= NoninPacketSerializer.FIELD_BATTERY_LOW;
+        if ((fields & NoninPacketSerializer.FIELD_SMART_POINT) != 0 && packet.isSmartPointMeasurement())
+            f |= NoninPacketSerializer.FIELD_SMART_POINT;
+        return f;
+    }
+}
@@ -0,0 +1,268 @@
+package org.apache.cordova.nonin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Counters of what the parser and the dispatcher of a device have done, kept across restarts.
+ * Each counter is written by a single thread (the reader or the dispatcher) and can be read
+ * by any thread without locking.
+ *
+ * @author Dario Salvi
+ */
+public class NoninCounters {
+
+    //written by the reader thread
+    private volatile long bytesRead = 0;
+    private volatile long validFrames = 0;
+    private volatile long invalidFrames = 0;
+    private volatile long skippedBytes = 0;
+    private volatile long resyncs = 0;
+    private volatile long rejectedFrames = 0;
+    private volatile long packets = 0;
+    private volatile long partialPackets = 0;
+    private volatile long orphanFrames = 0;
+    private volatile long droppedPackets = 0;
+    private volatile long linkLosses = 0;
+    private volatile long reconnects = 0;
+    private volatile long reconnectNanos = 0;
+    private volatile long maxReconnectNanos = 0;
+    //System.nanoTime() when the link was lost, 0 once a packet has arrived after it
+    private long linkLostAt = 0;
+
+    //written by the dispatcher thread
+    private volatile long handledPackets = 0;
+    private volatile long handlerNanos = 0;
+    private volatile long maxHandlerNanos = 0;
+
+    void addBytesRead(int n) {
+        bytesRead += n;
+    }
+
+    void addValidFrame() {
+        validFrames++;
+    }
+
+    /**
+     * A frame was expected but the bytes were not a valid frame, the sync is lost
+     */
+    void addInvalidFrame() {
+        invalidFrames++;
+    }
+
+    void addSkippedBytes(int n) {
+        skippedBytes += n;
+    }
+
+    /**
+     * The stream is locked again after the lock was lost
+     */
+    void addResync() {
+        resyncs++;
+    }
+
+    /**
+     * Valid frames that were not used because they did not lead to a lock
+     */
+    void addRejectedFrames(int n) {
+        rejectedFrames += n;
+    }
+
+    void addPacket() {
+        packets++;
+        if (linkLostAt != 0) {
+            // first packet since the link was lost
+            long nanos = System.nanoTime() - linkLostAt;
+            linkLostAt = 0;
+            reconnects++;
+            reconnectNanos = nanos;
+            if (nanos > maxReconnectNanos)
+                maxReconnectNanos = nanos;
+        }
+    }
+
+    /**
+     * The stream ended by itself and the reader is reconnecting
+     * @param now System.nanoTime() when the link was lost
+     */
+    void addLinkLoss(long now) {
+        linkLosses++;
+        // a connection that is lost again before any packet does not restart the count
+        if (linkLostAt == 0)
+            linkLostAt = now;
+    }
+
+    /**
+     * A packet was finished with some frames missing
+     */
+    void addPartialPacket() {
+        partialPackets++;
+    }
+
+    /**
+     * Valid frames whose position in the packet could not be known
+     */
+    void addOrphanFrames(int n) {
+        orphanFrames += n;
+    }
+
+    void addDroppedPacket() {
+        droppedPackets++;
+    }
+
+    void addHandlerTime(long nanos) {
+        handledPackets++;
+        handlerNanos += nanos;
+        if (nanos > maxHandlerNanos)
+            maxHandlerNanos = nanos;
+    }
+
+    /**
+     * Bytes read from the stream
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Frames (or trend records) with a valid checksum
+     */
+    public long getValidFrames() {
+        return validFrames;
+    }
+
+    /**
+     * Times a frame was expected but the bytes were not valid, losing the sync
+     */
+    public long getInvalidFrames() {
+        return invalidFrames;
+    }
+
+    /**
+     * Bytes discarded while looking for a valid frame
+     */
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * Times the stream was locked again after the lock was lost
+     */
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    /**
+     * Frames with a valid checksum discarded because they were not followed by enough valid frames,
+     * most likely false frames in corrupted data
+     */
+    public long getRejectedFrames() {
+        return rejectedFrames;
+    }
+
+    /**
+     * Complete packets given to the dispatcher
+     */
+    public long getPackets() {
+        return packets;
+    }
+
+    /**
+     * Packets finished with some frames missing, included in getPackets()
+     */
+    public long getPartialPackets() {
+        return partialPackets;
+    }
+
+    /**
+     * Frames with a valid checksum discarded because their position in the packet could not be known
+     */
+    public long getOrphanFrames() {
+        return orphanFrames;
+    }
+
+    /**
+     * Packets dropped because the queue of the dispatcher was full
+     */
+    public long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    /**
+     * Times the stream ended by itself and a reconnection was attempted
+     */
+    public long getLinkLosses() {
+        return linkLosses;
+    }
+
+    /**
+     * Times a packet arrived again after the link was lost
+     */
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * Time from the last loss of the link to the first packet after it, in ns
+     */
+    public long getReconnectNanos() {
+        return reconnectNanos;
+    }
+
+    /**
+     * Longest time from a loss of the link to the first packet after it, in ns
+     */
+    public long getMaxReconnectNanos() {
+        return maxReconnectNanos;
+    }
+
+    /**
+     * Packets given to the handler
+     */
+    public long getHandledPackets() {
+        return handledPackets;
+    }
+
+    /**
+     * Total time spent in the handler, in ns
+     */
+    public long getHandlerNanos() {
+        return handlerNanos;
+    }
+
+    /**
+     * Longest time spent in the handler for one packet, in ns
+     */
+    public long getMaxHandlerNanos() {
+        return maxHandlerNanos;
+    }
+
+    /**
+     * The counters, as sent to JavaScript, times in ms
+     * @return the counters
+     * @throws JSONException if the object cannot be built
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put("bytesRead", bytesRead);
+        r.put("validFrames", validFrames);
+        r.put("invalidFrames", invalidFrames);
+        r.put("skippedBytes", skippedBytes);
+        r.put("resyncs", resyncs);
+        r.put("rejectedFrames", rejectedFrames);
+        r.put("packets", packets);
+        r.put("partialPackets", partialPackets);
+        r.put("orphanFrames", orphanFrames);
+        r.put("droppedPackets", droppedPackets);
+        r.put("linkLosses", linkLosses);
+        r.put("reconnects", reconnects);
+        r.put("reconnectTime", reconnectNanos / 1e6);
+        r.put("maxReconnectTime", maxReconnectNanos / 1e6);
+        long handled = handledPackets;
+        r.put("handledPackets", handled);
+        r.put("handlerTime", handlerNanos / 1e6);
+        r.put("meanHandlerTime", handled > 0 ? handlerNanos / 1e6 / handled : 0);
+        r.put("maxHandlerTime", maxHandlerNanos / 1e6);
+        return r;
+    }
+}
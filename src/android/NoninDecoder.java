@@ -0,0 +1,34 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Turns the stream of bytes of one data format into packets.
+ * Whatever the format, the values are stored in a NoninPacket with the layout of data format 7,
+ * so that the rest of the plugin does not depend on the format.
+ *
+ * @author Dario Salvi
+ */
+public interface NoninDecoder {
+
+    /**
+     * Decodes bytes into the packet, stops as soon as the packet is full.
+     * The packet keeps being filled across calls until it is full.
+     * @param buffer the bytes received from the device
+     * @param offset position of the first byte to decode
+     * @param length number of bytes available
+     * @param packet the packet to fill, cleared by the decoder when a new packet starts
+     * @return the number of bytes consumed, less than length only if the packet became full
+     * (0 if it was finished by the bytes of a previous call)
+     */
+    int decode(byte[] buffer, int offset, int length, NoninPacket packet);
+
+    /**
+     * Forgets the bytes received so far, for example after a reconnection
+     */
+    void reset();
+
+    /**
+     * Sets where the frames found, the invalid ones and the bytes skipped are counted
+     * @param counters the counters of the device
+     */
+    void setCounters(NoninCounters counters);
+}
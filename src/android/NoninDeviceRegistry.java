@@ -0,0 +1,209 @@
+package org.apache.cordova.nonin;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.ParcelUuid;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the bonded (paired) devices, by normalised address, so that looking up a device does
+ * not query the adapter nor walk the whole set. The set is read again from the adapter only after
+ * a bond or the adapter has changed state, as told by the broadcasts received once register() is called.
+ * The last data format used with each device is kept too, across refreshes.
+ *
+ * @author Dario Salvi
+ */
+public class NoninDeviceRegistry {
+
+    /**
+     * A bonded device
+     */
+    public static class Device {
+        private final String address;
+        private final String name;
+        private final String[] uuids;
+
+        Device(String address, String name, String[] uuids) {
+            this.address = address;
+            this.name = name;
+            this.uuids = uuids;
+        }
+
+        /**
+         * Address in upper case
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Name given by the device, can be null
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Service UUIDs found by the last service discovery, empty if none
+         */
+        public String[] getUuids() {
+            return uuids;
+        }
+    }
+
+    private final BluetoothAdapter adapter;
+    //bonded devices by normalised address, replaced as a whole when refreshed
+    private volatile Map<String, Device> devices = Collections.emptyMap();
+    //true when the bonded set must be read again
+    private volatile boolean stale = true;
+    //last format used with each device, by normalised address
+    private final Map<String, NoninFormat> lastFormats = new ConcurrentHashMap<String, NoninFormat>();
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // read again at the next lookup, not on the main thread
+            stale = true;
+        }
+    };
+
+    /**
+     * Creates the registry, the bonded devices are read at the first lookup
+     * @param adapter the bluetooth adapter
+     */
+    public NoninDeviceRegistry(BluetoothAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Starts receiving the broadcasts that make the cache stale
+     * @param context where the receiver is registered
+     */
+    public void register(Context context) {
+        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        context.registerReceiver(receiver, filter);
+        // changes before the registration were not received
+        stale = true;
+    }
+
+    /**
+     * Stops receiving the broadcasts
+     * @param context where the receiver was registered
+     */
+    public void unregister(Context context) {
+        context.unregisterReceiver(receiver);
+    }
+
+    /**
+     * Tells if a device is bonded, if the adapter is off no device is
+     * @param address the address of the device, in any case
+     * @return true if bonded
+     */
+    public boolean isBonded(String address) {
+        return getDevices().containsKey(normalise(address));
+    }
+
+    /**
+     * Gives a bonded device
+     * @param address the address of the device, in any case
+     * @return the device, or null if not bonded
+     */
+    public Device getDevice(String address) {
+        return getDevices().get(normalise(address));
+    }
+
+    /**
+     * Gives the bonded devices, read from the adapter if the cache is stale
+     * @return the devices by upper case address, not modifiable
+     */
+    public Map<String, Device> getDevices() {
+        if (stale)
+            refresh();
+        return devices;
+    }
+
+    /**
+     * Remembers the format used with a device
+     * @param address the address of the device
+     * @param format the format requested to the device
+     */
+    public void setLastFormat(String address, NoninFormat format) {
+        lastFormats.put(normalise(address), format);
+    }
+
+    /**
+     * Gives the last format used with a device
+     * @param address the address of the device
+     * @return the format, null if never started
+     */
+    public NoninFormat getLastFormat(String address) {
+        return lastFormats.get(normalise(address));
+    }
+
+    /**
+     * Describes the bonded devices
+     * @return an array of { address, name, uuids, lastFormat }
+     * @throws JSONException if the objects cannot be built
+     */
+    public JSONArray toJSON() throws JSONException {
+        JSONArray r = new JSONArray();
+        for (Device d : getDevices().values()) {
+            JSONObject o = new JSONObject();
+            o.put("address", d.getAddress());
+            o.put("name", d.getName());
+            JSONArray uuids = new JSONArray();
+            for (String u : d.getUuids())
+                uuids.put(u);
+            o.put("uuids", uuids);
+            NoninFormat format = lastFormats.get(d.getAddress());
+            if (format != null)
+                o.put("lastFormat", format.name());
+            r.put(o);
+        }
+        return r;
+    }
+
+    /**
+     * Normalises an address so that it can be used as a key
+     * @param address a bluetooth address
+     * @return the address in upper case
+     */
+    public static String normalise(String address) {
+        return address.trim().toUpperCase(Locale.US);
+    }
+
+    private synchronized void refresh() {
+        if (!stale)
+            return;
+        // cleared before reading, so that a broadcast arriving meanwhile is not lost
+        stale = false;
+        Map<String, Device> map = new HashMap<String, Device>();
+        Set<BluetoothDevice> bonded = adapter.getBondedDevices();
+        if (bonded != null) {
+            for (BluetoothDevice d : bonded) {
+                ParcelUuid[] discovered = d.getUuids();
+                String[] uuids = new String[discovered != null ? discovered.length : 0];
+                for (int i = 0; i < uuids.length; i++)
+                    uuids[i] = discovered[i].toString();
+                String address = normalise(d.getAddress());
+                map.put(address, new Device(address, d.getName(), uuids));
+            }
+        }
+        devices = Collections.unmodifiableMap(map);
+    }
+}
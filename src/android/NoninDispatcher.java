@@ -0,0 +1,273 @@
+package org.apache.cordova.nonin;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves the packets from the parser thread to a dedicated thread that calls the handler,
+ * so that a slow handler never delays the reading of the stream.
+ * When the queue is full the newest packet is dropped, or the oldest one with Overflow.DROP_OLDEST,
+ * the parser never waits, unless the dispatcher is lossless (for sources that are not paced by a device, as a replay).
+ *
+ * @author Dario Salvi
+ */
+public class NoninDispatcher implements NoninPacketListener {
+
+    /**
+     * Default capacity of the queue, about 5 seconds of packets
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * What is dropped when the queue is full
+     */
+    public enum Overflow {
+        /**
+         * The packet being queued, those waiting are kept
+         */
+        DROP_NEWEST,
+        /**
+         * The packet that has waited longest, to make room for the new one
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * Called on the dispatching thread when no packet is waiting, for work that is due at a time
+     * rather than at a packet
+     */
+    public interface IdleListener {
+        /**
+         * Does the work that is due
+         * @return ns to wait for a packet before being called again, 0 to wait only for a packet
+         */
+        long idle();
+    }
+
+    /**
+     * How long a lossless dispatcher waits before checking again for room in the queue
+     */
+    private static final long LOSSLESS_WAIT_NANOS = 100000;
+
+    private final NoninPacketListener handler;
+    private final NoninPacketQueue queue;
+    private final NoninCounters counters;
+    private volatile Thread thread;
+    private volatile boolean running = false;
+    private CountDownLatch exited;
+    private volatile boolean lossless = false;
+    private volatile Overflow overflow = Overflow.DROP_NEWEST;
+    private volatile IdleListener idleListener;
+
+    //counters, each one written by a single thread
+    private volatile long enqueued = 0;
+    private volatile long dropped = 0;
+    private volatile long dispatched = 0;
+    private volatile int maxDepth = 0;
+
+    /**
+     * Creates the dispatcher
+     * @param handler the handler called on the dispatching thread
+     * @param capacity number of packets that can wait for the handler
+     */
+    public NoninDispatcher(NoninPacketListener handler, int capacity) {
+        this(handler, capacity, new NoninCounters());
+    }
+
+    /**
+     * Creates the dispatcher
+     * @param handler the handler called on the dispatching thread
+     * @param capacity number of packets that can wait for the handler
+     * @param counters where the dropped packets and the time spent in the handler are counted
+     */
+    public NoninDispatcher(NoninPacketListener handler, int capacity, NoninCounters counters) {
+        this.handler = handler;
+        this.queue = new NoninPacketQueue(capacity);
+        this.counters = counters;
+    }
+
+    /**
+     * Starts dispatching on a thread of an executor, the thread is renamed while dispatching
+     * @param executor the executor
+     * @param name name given to the thread while dispatching
+     */
+    public synchronized void start(Executor executor, final String name) {
+        if (running)
+            return;
+        running = true;
+        final CountDownLatch done = new CountDownLatch(1);
+        exited = done;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Thread current = Thread.currentThread();
+                String previousName = current.getName();
+                current.setName(name);
+                thread = current;
+                try {
+                    dispatch();
+                } finally {
+                    thread = null;
+                    current.setName(previousName);
+                    done.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops dispatching and waits for the thread to be done, the packets still in the queue are discarded
+     * @throws InterruptedException if interrupted while waiting for the thread to end
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running)
+            return;
+        running = false;
+        Thread t = thread;
+        if (t != null)
+            LockSupport.unpark(t);
+        exited.await();
+        NoninPacket packet;
+        while ((packet = queue.poll()) != null)
+            packet.release();
+    }
+
+    /**
+     * Queues a packet, called by the parser thread
+     */
+    @Override
+    public void handle(NoninPacket packet) {
+        packet.retain();
+        while (!queue.offer(packet)) {
+            if (overflow == Overflow.DROP_OLDEST && running && !lossless) {
+                // the dispatching thread may take it first, then there is room anyway
+                NoninPacket oldest = queue.poll();
+                if (oldest != null) {
+                    oldest.release();
+                    dropped++;
+                    counters.addDroppedPacket();
+                }
+                continue;
+            }
+            if (!lossless || !running) {
+                packet.release();
+                dropped++;
+                counters.addDroppedPacket();
+                return;
+            }
+            // wait for the handler to make room
+            LockSupport.parkNanos(this, LOSSLESS_WAIT_NANOS);
+        }
+        enqueued++;
+        int depth = queue.size();
+        if (depth > maxDepth)
+            maxDepth = depth;
+        Thread t = thread;
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+
+    private void dispatch() {
+        while (running) {
+            NoninPacket packet = queue.poll();
+            if (packet == null) {
+                IdleListener idle = idleListener;
+                long wait = idle != null ? idle.idle() : 0;
+                if (wait > 0)
+                    LockSupport.parkNanos(this, wait);
+                else
+                    LockSupport.park(this);
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                handler.handle(packet);
+            } finally {
+                packet.release();
+            }
+            counters.addHandlerTime(System.nanoTime() - start);
+            dispatched++;
+        }
+    }
+
+    /**
+     * Makes the parser wait for room in the queue instead of dropping packets
+     * @param lossless true to never drop packets while running
+     */
+    public void setLossless(boolean lossless) {
+        this.lossless = lossless;
+    }
+
+    /**
+     * Sets what is called when no packet is waiting, before the thread parks
+     * @param idleListener the listener, null for none
+     */
+    public void setIdleListener(IdleListener idleListener) {
+        this.idleListener = idleListener;
+    }
+
+    /**
+     * Sets what is dropped when the queue is full, ignored if lossless
+     * @param overflow DROP_NEWEST (the default) or DROP_OLDEST
+     */
+    public void setOverflow(Overflow overflow) {
+        this.overflow = overflow;
+    }
+
+    /**
+     * What is dropped when the queue is full
+     * @return the overflow policy
+     */
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * Number of packets dropped because the queue was full, the new ones or the oldest waiting
+     * @return the number of dropped packets
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Number of packets queued
+     * @return the number of queued packets
+     */
+    public long getEnqueuedCount() {
+        return enqueued;
+    }
+
+    /**
+     * Number of packets given to the handler
+     * @return the number of dispatched packets
+     */
+    public long getDispatchedCount() {
+        return dispatched;
+    }
+
+    /**
+     * Current number of packets waiting for the handler
+     * @return the depth of the queue
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Maximum number of packets that have been waiting for the handler at the same time
+     * @return the highest depth of the queue
+     */
+    public int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Maximum number of packets that can wait for the handler
+     * @return the capacity of the queue
+     */
+    public int getQueueCapacity() {
+        return queue.capacity();
+    }
+}
@@ -0,0 +1,89 @@
+package org.apache.cordova.nonin;
+
+import java.util.Locale;
+
+/**
+ * Data formats that can be requested to the device, each with its decoder.
+ * D7 and D2 stream the PPG at 75 Hz, D8 and D13 only send SpO2 and HR once per second,
+ * which is enough for long term trend monitoring and needs much less bandwidth.
+ *
+ * @author Dario Salvi
+ */
+public enum NoninFormat {
+
+    /**
+     * 16-bit PPG, 3 packets per second, 375 bytes/s
+     */
+    D7(0x07),
+    /**
+     * 8-bit PPG, 3 packets per second, 375 bytes/s
+     */
+    D2(0x02),
+    /**
+     * SpO2 and HR only, 1 record per second, 4 bytes/s
+     */
+    D8(0x08),
+    /**
+     * SpO2, HR and STAT2 only, 1 record per second, 6 bytes/s
+     */
+    D13(0x0D);
+
+    private final int code;
+
+    NoninFormat(int code) {
+        this.code = code;
+    }
+
+    /**
+     * Finds the format from its name
+     * @param name D7, D2, D8 or D13, case insensitive, null for D7
+     * @return the format
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    public static NoninFormat fromName(String name) {
+        if (name == null)
+            return D7;
+        return valueOf(name.trim().toUpperCase(Locale.US));
+    }
+
+    /**
+     * Creates a decoder for this format, decoders keep state and cannot be shared among streams
+     * @return a new decoder
+     */
+    public NoninDecoder createDecoder() {
+        switch (this) {
+            case D2:
+                return new NoninFormat2Decoder();
+            case D8:
+                return new NoninTrendDecoder(false);
+            case D13:
+                return new NoninTrendDecoder(true);
+            default:
+                return new NoninFormat7Decoder();
+        }
+    }
+
+    /**
+     * Tells if the packets of this format contain the PPG
+     * @return true for D7 and D2
+     */
+    public boolean hasPleth() {
+        return this == D7 || this == D2;
+    }
+
+    /**
+     * Builds the command that sets this data format on the device
+     * @return the bytes of the command
+     */
+    public byte[] getCommand() {
+        // Initialise the "init" packet
+        byte initPacket[] = new byte[6];
+        initPacket[0] = 0x02; // START
+        initPacket[1] = 0x70; // Op Code
+        initPacket[2] = 0x02; // Data Size
+        initPacket[3] = 0x02; // Data Type
+        initPacket[4] = (byte) code;
+        initPacket[5] = 0x03; // ETX
+        return initPacket;
+    }
+}
@@ -0,0 +1,82 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Decodes data format 2: packets of 25 frames of 5 bytes (start, status, PPG, extra, checksum),
+ * 3 packets per second with 8-bit PPG at 75 Hz.
+ * The start byte is always 0x01 and the checksum is the sum of the previous four bytes.
+ * The extra bytes have the same meaning as in format 7, the PPG samples range from 0 to 255.
+ *
+ * @author Dario Salvi
+ */
+public class NoninFormat2Decoder implements NoninDecoder {
+
+    /**
+     * Size in bytes of a frame, checksum included
+     */
+    public static final int FRAME_SIZE = 5;
+
+    private static final int START = 0x01;
+
+    //last bytes received, the oldest first
+    private final int[] window = new int[FRAME_SIZE - 1];
+    private int count = 0;
+    //true if the last frame was valid, so the next one is expected right after it
+    private boolean synced = false;
+    //bytes skipped since the last valid frame, -1 before the first frame
+    private int skipped = -1;
+    //assembles the frames into packets once the stream is locked
+    private final NoninFrameLock lock = new NoninFrameLock();
+    private NoninCounters counters = new NoninCounters();
+
+    @Override
+    public int decode(byte[] buffer, int offset, int length, NoninPacket packet) {
+        // a packet left by the previous call, when two were finished by the same frame
+        if (lock.poll(packet))
+            return 0;
+        for (int i = 0; i < length; i++) {
+            int value = buffer[offset + i] & 0xFF;
+            if (count < window.length) {
+                window[count++] = value;
+                continue;
+            }
+            int sum = window[0] + window[1] + window[2] + window[3];
+            if (window[0] != START || (window[1] & 0x80) == 0 || (sum & 0xFF) != value) {
+                // not a frame, slide forward by one byte
+                if (synced) {
+                    counters.addInvalidFrame();
+                    synced = false;
+                }
+                counters.addSkippedBytes(1);
+                if (skipped >= 0)
+                    skipped++;
+                window[0] = window[1];
+                window[1] = window[2];
+                window[2] = window[3];
+                window[3] = value;
+                continue;
+            }
+            count = 0;
+            counters.addValidFrame();
+            int frameSkipped = skipped;
+            skipped = 0;
+            synced = true;
+            if (lock.push(window[1], window[2], window[3], frameSkipped) && lock.poll(packet))
+                return i + 1;
+        }
+        return length;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        synced = false;
+        skipped = -1;
+        lock.reset();
+    }
+
+    @Override
+    public void setCounters(NoninCounters counters) {
+        this.counters = counters;
+        lock.setCounters(counters);
+    }
+}
@@ -0,0 +1,64 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Decodes data format 7: packets of 25 frames of 5 bytes (status, PPG MSB, PPG LSB, extra, checksum),
+ * 3 packets per second with 16-bit PPG at 75 Hz.
+ *
+ * @author Dario Salvi
+ */
+public class NoninFormat7Decoder implements NoninDecoder {
+
+    //finds the frames in the stream, allocation free
+    private final NoninFrameSync sync = new NoninFrameSync();
+    //assembles the frames into packets once the stream is locked
+    private final NoninFrameLock lock;
+
+    /**
+     * Creates the decoder, locking after NoninFrameLock.DEFAULT_LOCK_FRAMES valid frames
+     */
+    public NoninFormat7Decoder() {
+        this(NoninFrameLock.DEFAULT_LOCK_FRAMES);
+    }
+
+    /**
+     * Creates the decoder
+     * @param lockFrames consecutive valid frames needed to lock, see NoninFrameLock
+     */
+    public NoninFormat7Decoder(int lockFrames) {
+        lock = new NoninFrameLock(lockFrames);
+    }
+
+    @Override
+    public int decode(byte[] buffer, int offset, int length, NoninPacket packet) {
+        // a packet left by the previous call, when two were finished by the same frame
+        if (lock.poll(packet))
+            return 0;
+        for (int i = 0; i < length; i++) {
+            if (!sync.push(buffer[offset + i]))
+                continue;
+            if (lock.push(sync.getStatus(), sync.getPleth(), sync.getExtraStatus(), sync.getSkippedBytes()) && lock.poll(packet))
+                return i + 1;
+        }
+        return length;
+    }
+
+    @Override
+    public void reset() {
+        sync.reset();
+        lock.reset();
+    }
+
+    @Override
+    public void setCounters(NoninCounters counters) {
+        sync.setCounters(counters);
+        lock.setCounters(counters);
+    }
+
+    /**
+     * Tells if the stream is locked
+     * @return true if the frames are being assembled into packets
+     */
+    public boolean isLocked() {
+        return lock.isLocked();
+    }
+}
@@ -66,12 +66,21 @@ public class NoninFrame implements Serializable{
 	 * @param buffer Raw data received from pulse oximeter
 	 */
 	public NoninFrame(byte[] buffer) {
+		this(buffer, 0);
+	}
+
+	/**
+	 * Populate this object with values from the buffer of raw data
+	 * @param buffer Raw data received from pulse oximeter
+	 * @param offset position of the frame in the buffer
+	 */
+	public NoninFrame(byte[] buffer, int offset) {
 
 		// Treat the raw data as unsigned, not signed (which is the default for byte)
-		status = buffer[STATUS_BYTE] & 0xFF;
-		pleth = (buffer[PLETH_MSB_BYTE] & 0xFF) << 8;
-		pleth += (buffer[PLETH_LSB_BYTE] & 0xFF);
-		extraStatus = buffer[EXTRA_STATUS_BYTE] & 0xFF;
+		status = buffer[offset + STATUS_BYTE] & 0xFF;
+		pleth = (buffer[offset + PLETH_MSB_BYTE] & 0xFF) << 8;
+		pleth += (buffer[offset + PLETH_LSB_BYTE] & 0xFF);
+		extraStatus = buffer[offset + EXTRA_STATUS_BYTE] & 0xFF;
 	}
 
 	/**
@@ -140,10 +149,18 @@ public class NoninFrame implements Serializable{
 	 * @return true during a pulse which contains artifact, false otherwise
 	 */
 	public boolean hasArtifact() {
+		return hasArtifact(status);
+	}
+
+	/**
+	 * Indicates the presence of artifact in a status byte
+	 * @param status the status byte
+	 * @return true if the artifact bit is set
+	 */
+	static boolean hasArtifact(int status) {
 		// Bit 5 of the status byte indicates artifact (ARTF)
 		// 0x20 = 100000 in binary
 		return ( (status & 0x20) != 0);
-
 	}
 
 	/**
@@ -151,6 +168,15 @@ public class NoninFrame implements Serializable{
 	 * @return true if signal is out of track, false otherwise
 	 */
 	public boolean isOutOfTrack() {
+		return isOutOfTrack(status);
+	}
+
+	/**
+	 * Indicates sustained artifact in a status byte
+	 * @param status the status byte
+	 * @return true if the out-of-track bit is set
+	 */
+	static boolean isOutOfTrack(int status) {
 		// Bit 4 of the status byte indicates out-of-track (OOT)
 		// 0x10 = 10000 in binary
 		return ( (status & 0x10) != 0);
@@ -161,10 +187,18 @@ public class NoninFrame implements Serializable{
 	 * @return true during a sensor error, false otherwise
 	 */
 	public boolean hasSensorAlarm() {
+		return hasSensorAlarm(status);
+	}
+
+	/**
+	 * Indicates a sensor error in a status byte
+	 * @param status the status byte
+	 * @return true if the sensor alarm bit is set
+	 */
+	static boolean hasSensorAlarm(int status) {
 		// Bit 3 of the status byte indicates out-of-track (SNSF)
 		// 0x08 = 1000 in binary
 		return ( (status & 0x08) != 0);
-
 	}
 
 	/**
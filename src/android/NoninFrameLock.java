@@ -0,0 +1,141 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Passes the frames found in the stream to the NoninPacketAssembler, only once the stream is locked.
+ * The checksum of a frame is a sum modulo 256, so corrupted data or random bytes after a dropout
+ * can look like a valid frame. Lock is declared only after lockFrames consecutive valid frames,
+ * each one right after the previous, with at most one sync bit among them; the frames that
+ * led to the lock are then used, so no data is lost. While locked, a frame that is not
+ * contiguous loses the lock. The assembler is told how many bytes were skipped or rejected
+ * before the lock, so that it can tell if frames may have been lost.
+ *
+ * @author Dario Salvi
+ */
+public class NoninFrameLock {
+
+    /**
+     * Default number of consecutive valid frames needed to lock
+     */
+    public static final int DEFAULT_LOCK_FRAMES = 3;
+
+    private final int lockFrames;
+    //frames found while not locked, the oldest first
+    private final int[] status;
+    private final int[] pleth;
+    private final int[] extra;
+    private int candidates = 0;
+    private boolean candidateSync = false;
+
+    private boolean locked = false;
+    private boolean everLocked = false;
+    //bytes skipped or rejected since the lock was lost
+    private int gap = 0;
+    //puts the frames at their position in the packets
+    private final NoninPacketAssembler assembler = new NoninPacketAssembler();
+    private NoninCounters counters = new NoninCounters();
+
+    /**
+     * Creates the lock with DEFAULT_LOCK_FRAMES
+     */
+    public NoninFrameLock() {
+        this(DEFAULT_LOCK_FRAMES);
+    }
+
+    /**
+     * Creates the lock
+     * @param lockFrames consecutive valid frames needed to lock, 1 accepts any valid frame
+     * @throws IllegalArgumentException if not between 1 and 24
+     */
+    public NoninFrameLock(int lockFrames) {
+        if (lockFrames < 1 || lockFrames >= NoninPacket.PACKETS_PER_FRAME)
+            throw new IllegalArgumentException("The frames to lock must be between 1 and " + (NoninPacket.PACKETS_PER_FRAME - 1));
+        this.lockFrames = lockFrames;
+        status = new int[lockFrames];
+        pleth = new int[lockFrames];
+        extra = new int[lockFrames];
+    }
+
+    /**
+     * Adds a frame with a valid checksum
+     * @param s the status byte
+     * @param p the PPG sample
+     * @param e the extra byte
+     * @param skipped bytes skipped since the previous valid frame, 0 if contiguous, -1 if there was none
+     * @return true if a packet is ready, see poll()
+     */
+    public boolean push(int s, int p, int e, int skipped) {
+        boolean sync = (s & 0x01) != 0;
+        boolean contiguous = skipped == 0;
+        if (locked) {
+            if (contiguous)
+                return assembler.push(s, p, e, 0);
+            locked = false;
+            gap = 0;
+        }
+
+        if (skipped > 0)
+            gap += skipped;
+        if (candidates > 0 && (!contiguous || (sync && candidateSync))) {
+            counters.addRejectedFrames(candidates);
+            gap += candidates * NoninFrameSync.FRAME_SIZE;
+            candidates = 0;
+            candidateSync = false;
+        }
+        status[candidates] = s;
+        pleth[candidates] = p;
+        extra[candidates] = e;
+        candidates++;
+        candidateSync |= sync;
+        if (candidates < lockFrames)
+            return false;
+
+        locked = true;
+        if (everLocked)
+            counters.addResync();
+        boolean ready = false;
+        for (int i = 0; i < candidates; i++)
+            ready |= assembler.push(status[i], pleth[i], extra[i], i > 0 ? 0 : (everLocked ? gap : -1));
+        everLocked = true;
+        candidates = 0;
+        candidateSync = false;
+        return ready;
+    }
+
+    /**
+     * Takes the oldest packet that is ready
+     * @param packet where the packet is copied, complete or closed with missing frames
+     * @return false if no packet is ready
+     */
+    public boolean poll(NoninPacket packet) {
+        return assembler.poll(packet);
+    }
+
+    /**
+     * Tells if the stream is locked
+     * @return true if the frames are being assembled into packets
+     */
+    public boolean isLocked() {
+        return locked;
+    }
+
+    /**
+     * Forgets the lock and the frames received so far
+     */
+    public void reset() {
+        locked = false;
+        everLocked = false;
+        candidates = 0;
+        candidateSync = false;
+        gap = 0;
+        assembler.reset();
+    }
+
+    /**
+     * Sets where the rejected frames, resyncs and partial packets are counted
+     * @param counters the counters of the device
+     */
+    public void setCounters(NoninCounters counters) {
+        this.counters = counters;
+        assembler.setCounters(counters);
+    }
+}
@@ -0,0 +1,178 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Finds the frames inside the stream of bytes received from the Nonin pulse oximeter.
+ * The last bytes received are kept in a small ring together with their sum, so that
+ * every new byte is checked against the checksum in constant time and without
+ * allocating any object.
+ *
+ * @author Dario Salvi
+ */
+public class NoninFrameSync {
+
+    /**
+     * Size in bytes of a frame, checksum included
+     */
+    public static final int FRAME_SIZE = 5;
+
+    /**
+     * Number of bytes preceding the checksum, must be a power of 2
+     */
+    private static final int WINDOW = FRAME_SIZE - 1;
+    private static final int WINDOW_MASK = WINDOW - 1;
+
+    /**
+     * Ring with the last bytes received (the checksum is not kept here)
+     */
+    private final byte[] ring = new byte[WINDOW];
+    /**
+     * Position of the oldest byte in the ring
+     */
+    private int head;
+    /**
+     * Number of bytes currently in the ring
+     */
+    private int count;
+    /**
+     * Sum of the bytes currently in the ring
+     */
+    private int sum;
+    /**
+     * Checksum of the last valid frame
+     */
+    private int checksum;
+    /**
+     * True if the ring currently holds a valid frame
+     */
+    private boolean frameReady;
+    /**
+     * True if the last frame was valid, so the next one is expected right after it
+     */
+    private boolean synced;
+    /**
+     * Bytes skipped since the last valid frame, -1 before the first frame
+     */
+    private int skipped = -1;
+    /**
+     * Bytes skipped before the current frame
+     */
+    private int frameSkipped = -1;
+    private NoninCounters counters = new NoninCounters();
+
+    /**
+     * Adds a new byte to the synchroniser.
+     * When true is returned, the frame can be read with the getters until the next byte is pushed.
+     * @param b the byte received from the device
+     * @return true if the byte completes a valid frame
+     */
+    public boolean push(byte b) {
+        int value = b & 0xFF;
+
+        if (frameReady) {
+            // the frame has been consumed, start a new one
+            clearWindow();
+        }
+
+        if (count == WINDOW) {
+            // Bit 7 of the status must be set and the new byte must be the checksum of the previous four
+            if (((ring[head] & 0x80) != 0) && ((sum & 0xFF) == value)) {
+                checksum = value;
+                frameReady = true;
+                counters.addValidFrame();
+                frameSkipped = skipped;
+                skipped = 0;
+                synced = true;
+                return true;
+            }
+            if (synced) {
+                counters.addInvalidFrame();
+                synced = false;
+            }
+            counters.addSkippedBytes(1);
+            if (skipped >= 0)
+                skipped++;
+            // slide forward by one byte
+            sum -= ring[head] & 0xFF;
+            head = (head + 1) & WINDOW_MASK;
+            count--;
+        }
+        ring[(head + count) & WINDOW_MASK] = b;
+        sum += value;
+        count++;
+        return false;
+    }
+
+    /**
+     * Forgets all the bytes received so far
+     */
+    public void reset() {
+        clearWindow();
+        synced = false;
+        skipped = -1;
+        frameSkipped = -1;
+    }
+
+    /**
+     * Sets where the valid and invalid frames are counted
+     * @param counters the counters of the device
+     */
+    public void setCounters(NoninCounters counters) {
+        this.counters = counters;
+    }
+
+    private void clearWindow() {
+        head = 0;
+        count = 0;
+        sum = 0;
+        frameReady = false;
+    }
+
+    /**
+     * Tells how many bytes were skipped between the previous valid frame and the current one.
+     * A frame found after skipping bytes may be a false frame in corrupted data.
+     * @return 0 if the frame immediately follows the previous one, -1 for the first frame
+     */
+    public int getSkippedBytes() {
+        return frameSkipped;
+    }
+
+    /**
+     * Tells if the current frame is a "sync" frame (the first frame in a packet)
+     * @return true if the status byte has bit 0 set
+     */
+    public boolean isSyncFrame() {
+        return (getStatus() & 0x01) == 1;
+    }
+
+    /**
+     * Returns the status byte of the current frame
+     * @return 8-bit number containing status flags
+     */
+    public int getStatus() {
+        return ring[head] & 0xFF;
+    }
+
+    /**
+     * Returns the PPG sample of the current frame
+     * @return 16-bit PPG value
+     */
+    public int getPleth() {
+        return ((ring[(head + 1) & WINDOW_MASK] & 0xFF) << 8) + (ring[(head + 2) & WINDOW_MASK] & 0xFF);
+    }
+
+    /**
+     * Returns the extra byte of the current frame
+     * @return 8-bit number whose meaning depends on the position of the frame in the packet
+     */
+    public int getExtraStatus() {
+        return ring[(head + 3) & WINDOW_MASK] & 0xFF;
+    }
+
+    /**
+     * Returns the checksum of the current frame
+     * @return 8-bit checksum
+     */
+    public int getChecksum() {
+        return checksum;
+    }
+}
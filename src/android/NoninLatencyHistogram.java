@@ -0,0 +1,119 @@
+package org.apache.cordova.nonin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with buckets growing as powers of 2: bucket i counts the latencies
+ * from 2^i to 2^(i+1) microseconds (bucket 0 also those below 1 microsecond), the last bucket
+ * everything above. Recording is lock-free and does not allocate, from any thread.
+ * Percentiles are approximated by the upper bound of their bucket.
+ *
+ * @author Dario Salvi
+ */
+public class NoninLatencyHistogram {
+
+    /**
+     * Number of buckets, the last one starts at about 8 seconds
+     */
+    public static final int BUCKETS = 24;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Adds a latency
+     * @param nanos the latency in ns, negative values are counted as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            // another thread updated the maximum, check again
+        }
+    }
+
+    /**
+     * Number of latencies recorded
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Mean latency
+     * @return the mean in ns, 0 if nothing was recorded
+     */
+    public long getMean() {
+        long n = count.get();
+        return n > 0 ? sum.get() / n : 0;
+    }
+
+    /**
+     * Highest latency
+     * @return the maximum in ns
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Approximates a percentile with the upper bound of its bucket
+     * @param percentile between 0 and 100
+     * @return the latency in ns, never more than the maximum, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(percentile / 100 * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min((2L << i) * 1000, max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * The histogram, as sent to JavaScript, times in ms
+     * @return count, mean, p50, p90, p99, max and the counts of the buckets up to the last used one
+     * @throws JSONException if the object cannot be built
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put("count", getCount());
+        r.put("mean", getMean() / 1e6);
+        r.put("p50", getPercentile(50) / 1e6);
+        r.put("p90", getPercentile(90) / 1e6);
+        r.put("p99", getPercentile(99) / 1e6);
+        r.put("max", getMax() / 1e6);
+        int last = BUCKETS - 1;
+        while (last >= 0 && buckets.get(last) == 0)
+            last--;
+        JSONArray b = new JSONArray();
+        for (int i = 0; i <= last; i++)
+            b.put(buckets.get(i));
+        r.put("buckets", b);
+        return r;
+    }
+}
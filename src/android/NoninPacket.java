@@ -1,6 +1,7 @@
 package org.apache.cordova.nonin;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Represents a packet of data received from the Nonin pulse oximeter.
@@ -20,9 +21,19 @@ public class NoninPacket implements Serializable {
 	 */
 	public static final int INVALID_DATA = -1;
 
+	/**
+	 * Size in bytes of a full packet, as received from the device
+	 */
+	public static final int RAW_SIZE = PACKETS_PER_FRAME * NoninFrameSync.FRAME_SIZE;
+
 	public static final int MISSING_HR = 511;
 	public static final int MISSING_SPO2 = 127;
 
+	/**
+	 * Bits of all the frames, as in getMissingFrames()
+	 */
+	public static final int ALL_FRAMES = (1 << PACKETS_PER_FRAME) - 1;
+
 	
 	
 	/**
@@ -152,25 +163,49 @@ public class NoninPacket implements Serializable {
 	}
 
 	/**
-	 * Array of frames in this packet
+	 * Raw bytes of the frames in this packet, in the same layout they are received
+	 * (status, PPG MSB, PPG LSB, extra, checksum), allocated once and overwritten by each new packet
 	 */
-	private NoninFrame[] frames;
+	private final byte[] raw = new byte[RAW_SIZE];
 
 	/**
 	 * Location in the frames array where the next new frame should be stored
 	 */
 	private int nextUnfilledFrame = 0;
-	private int lastValidFrame = -1;
+	/**
+	 * Bit i is set if frame i has been received
+	 */
+	private int frames = 0;
 	
 	private boolean hasAnyPacketsWithArtifact;
 	private boolean hasAnyPacketsWithOutOfTrack;
 	private boolean hasAnyPacketsWithSensorAlarm;
+
+	/**
+	 * True if the packet holds a 1 Hz trend record (data formats 8 and 13), without PPG and timer
+	 */
+	private boolean trend;
+
+	/**
+	 * System.nanoTime() when the last byte of the packet was read, 0 if unknown
+	 */
+	private long receivedTime;
+
+	/**
+	 * Pool the packet returns to when released, null if not pooled
+	 */
+	private transient NoninPacketPool pool;
+	/**
+	 * Number of owners of a pooled packet
+	 */
+	private transient volatile int references;
+	private static final AtomicIntegerFieldUpdater<NoninPacket> REFERENCES =
+			AtomicIntegerFieldUpdater.newUpdater(NoninPacket.class, "references");
 	
 	/**
 	 * Initialises the packet
 	 */
 	public NoninPacket() {
-		frames = new NoninFrame[PACKETS_PER_FRAME];
 		clear(); // reset all flags, as there are no frames in the frame yet
 	}
 
@@ -178,20 +213,123 @@ public class NoninPacket implements Serializable {
 	 * Initialises the packet
 	 */
 	public NoninPacket(NoninPacket frame) {
+		copyFrom(frame);
+	}
+
+	/**
+	 * Initialises the packet from raw bytes, as received from the device or
+	 * as given by getRawBytes(). The checksums are not verified, frames whose
+	 * status byte has bit 7 clear are the empty frames of a packet with missing frames.
+	 * @param buffer the raw bytes
+	 * @param offset position of the first frame in the buffer
+	 * @param length number of bytes, a multiple of the frame size
+	 */
+	public NoninPacket(byte[] buffer, int offset, int length) {
 		this();
-		for(int i=0; i<frame.getFramesCounter(); i++){
-			addFrame(frame.getFrame(i));
+		int frameSize = NoninFrameSync.FRAME_SIZE;
+		for(int pos = offset; pos + frameSize <= offset + length; pos += frameSize){
+			int status = buffer[pos] & 0xFF;
+			if ((status & 0x80) != 0)
+				setFrame((pos - offset) / frameSize, status,
+						((buffer[pos + 1] & 0xFF) << 8) + (buffer[pos + 2] & 0xFF),
+						buffer[pos + 3] & 0xFF);
 		}
+		if (length >= RAW_SIZE && !isComplete())
+			close();
+	}
+
+	/**
+	 * Gives the only reference of this packet to whom acquired it from the pool
+	 * @param pool the pool the packet belongs to
+	 */
+	void lease(NoninPacketPool pool) {
+		this.pool = pool;
+		references = 1;
 	}
 
 	/**
-	 * Indicates whether the packet has all the required frames
-	 * @return true if the frame is complete, false if some frames are missing
+	 * Keeps a pooled packet beyond the call that received it.
+	 * Every call must be balanced by a call to release().
+	 * Has no effect on packets that were not taken from a pool.
+	 * @return this packet
+	 */
+	public NoninPacket retain() {
+		if (pool != null)
+			REFERENCES.incrementAndGet(this);
+		return this;
+	}
+
+	/**
+	 * Gives back a reference to a pooled packet. When the last reference is
+	 * released the packet returns to its pool and it must not be used any longer.
+	 * Has no effect on packets that were not taken from a pool.
+	 */
+	public void release() {
+		NoninPacketPool p = pool;
+		if (p == null)
+			return;
+		int left = REFERENCES.decrementAndGet(this);
+		if (left == 0) {
+			p.recycle(this);
+		} else if (left < 0) {
+			throw new IllegalStateException("Packet released more times than retained");
+		}
+	}
+
+	/**
+	 * Makes this packet identical to another one, the bytes of the frames
+	 * missing in the other packet are set to 0
+	 * @param other the packet to copy
+	 */
+	public void copyFrom(NoninPacket other) {
+		System.arraycopy(other.raw, 0, raw, 0, other.nextUnfilledFrame * NoninFrameSync.FRAME_SIZE);
+		nextUnfilledFrame = other.nextUnfilledFrame;
+		frames = other.frames;
+		// the other packet may not be closed yet, its missing frames can hold old bytes
+		if (frames != ALL_FRAMES)
+			zeroMissingFrames(nextUnfilledFrame);
+		hasAnyPacketsWithArtifact = other.hasAnyPacketsWithArtifact;
+		hasAnyPacketsWithOutOfTrack = other.hasAnyPacketsWithOutOfTrack;
+		hasAnyPacketsWithSensorAlarm = other.hasAnyPacketsWithSensorAlarm;
+		trend = other.trend;
+		receivedTime = other.receivedTime;
+	}
+
+	/**
+	 * Indicates whether the packet is finished: all the frames were received, or
+	 * the packet was closed with some frames missing (see isComplete())
+	 * @return true if the packet is finished, false if more frames are expected
 	 */
 	public boolean isFull() {
 		return (nextUnfilledFrame == PACKETS_PER_FRAME);
 	}
 
+	/**
+	 * Indicates whether all the 25 frames of the packet were received
+	 * @return true if no frame is missing
+	 */
+	public boolean isComplete() {
+		return frames == ALL_FRAMES;
+	}
+
+	/**
+	 * Indicates whether a frame was received.
+	 * The getters of the values carried by a missing frame return INVALID_DATA.
+	 * @param packetIndex index of the frame, from 0 to 24
+	 * @return true if the frame is in the packet
+	 */
+	public boolean hasFrame(int packetIndex) {
+		return (frames & (1 << packetIndex)) != 0;
+	}
+
+	/**
+	 * Tells which frames were not received
+	 * @return bit i set if frame i is missing, 0 if the packet is complete
+	 */
+	public int getMissingFrames() {
+		return ~frames & ALL_FRAMES;
+	}
+
 	/**
 	 * Indicates whether any frames in this packet contain pulses with artifact.
 	 * @return true if any pulse artifact was detected in this packet, false otherwise
@@ -225,40 +363,169 @@ public class NoninPacket implements Serializable {
 	public void clear() {
 		// We will start storing new frames from the start of the frame
 		nextUnfilledFrame = 0;
-		lastValidFrame = -1;
+		frames = 0;
 		
 		// Reset these flags (as there are no frames in the frame yet)
 		hasAnyPacketsWithArtifact = false;
 		hasAnyPacketsWithOutOfTrack = false;
 		hasAnyPacketsWithSensorAlarm = false;
+		trend = false;
+		receivedTime = 0;
+	}
+
+	/**
+	 * Fills the packet with a trend record, as sent once per second in data formats 8 and 13.
+	 * The values are copied in all the frames of the format 7 layout where they belong
+	 * (recording, display and extended averages), so that all the getters work.
+	 * The PPG is not available and the timer is INVALID_DATA.
+	 * @param status the status byte, same flags as in format 7
+	 * @param hrMsb MSB of the heart rate
+	 * @param hrLsb LSB of the heart rate
+	 * @param spo2 the SpO2
+	 * @param stat2 STAT2 (low battery and SmartPoint flags), 0 if not available
+	 */
+	void setTrend(int status, int hrMsb, int hrLsb, int spo2, int stat2) {
+		clear();
+		for (int i = 0; i < PACKETS_PER_FRAME; i++) {
+			int extra;
+			switch (i) {
+			case FrameLocation.HR_MSB:
+			case FrameLocation.EXT_HR_MSB:
+			case FrameLocation.HR_MSB_DISPLAY:
+			case FrameLocation.EXT_HR_MSB_DISPLAY:
+				extra = hrMsb;
+				break;
+			case FrameLocation.HR_LSB:
+			case FrameLocation.EXT_HR_LSB:
+			case FrameLocation.HR_LSB_DISPLAY:
+			case FrameLocation.EXT_HR_LSB_DISPLAY:
+				extra = hrLsb;
+				break;
+			case FrameLocation.SPO2:
+			case FrameLocation.SPO2_DISPLAY:
+			case FrameLocation.SPO2_FAST:
+			case FrameLocation.SPO2_BEAT_TO_BEAT:
+			case FrameLocation.EXT_SPO2:
+			case FrameLocation.EXT_SPO2_DISPLAY:
+				extra = spo2;
+				break;
+			case FrameLocation.STAT2:
+				extra = stat2;
+				break;
+			default:
+				extra = 0;
+			}
+			// only the first frame is marked as sync, as in format 7
+			addFrame(i == 0 ? (status | 0x01) : (status & ~0x01), 0, extra);
+		}
+		trend = true;
+	}
+
+	/**
+	 * Tells when the packet was received, to measure the latency of its delivery
+	 * @return System.nanoTime() when the last byte of the packet was read, 0 if unknown
+	 */
+	public long getReceivedTime() {
+		return receivedTime;
+	}
+
+	/**
+	 * Sets when the packet was received, called by the parser
+	 * @param nanos System.nanoTime() when the last byte of the packet was read
+	 */
+	void setReceivedTime(long nanos) {
+		receivedTime = nanos;
+	}
+
+	/**
+	 * Indicates whether the packet holds a trend record (data formats 8 and 13)
+	 * @return true if the packet has no PPG and timer, only the values sent once per second
+	 */
+	public boolean isTrend() {
+		return trend;
 	}
 
 	/**
 	 * Adds a new frame to this packet, from raw data.
 	 * If the packet is already full, the frame will be ignored.
+	 * The values of the frame are copied, the frame object is not kept.
 	 * @param frame the NoninFrame to be added
 	 * @return true if the frame was successfully added, false if the packet was already full
 	 */
 	public boolean addFrame(NoninFrame frame) {
+		return addFrame(frame.getStatus(), frame.getPleth(), frame.getExtraStatus());
+	}
+
+	/**
+	 * Adds a new frame to this packet, from already decoded values.
+	 * If the packet is already full, the frame will be ignored.
+	 * @param status the status byte of the frame
+	 * @param pleth the PPG sample of the frame
+	 * @param extraStatus the extra byte of the frame
+	 * @return true if the frame was successfully added, false if the packet was already full
+	 */
+	boolean addFrame(int status, int pleth, int extraStatus) {
 
 		// Ignore if the frame is already full
 		if (isFull()) {
 			return false;
 		}
 
-		// Store data from the buffer into the next available frame location in the frame
-		frames[nextUnfilledFrame] = frame;
+		setFrame(nextUnfilledFrame, status, pleth, extraStatus);
+		return true;
+	}
+
+	/**
+	 * Sets a frame at its position in the packet, used when previous frames were lost.
+	 * The frames counter becomes the position of the last frame set plus one.
+	 * @param packetIndex index of the frame, from 0 to 24
+	 * @param status the status byte of the frame
+	 * @param pleth the PPG sample of the frame
+	 * @param extraStatus the extra byte of the frame
+	 */
+	void setFrame(int packetIndex, int status, int pleth, int extraStatus) {
+		int pos = packetIndex * NoninFrameSync.FRAME_SIZE;
+		raw[pos] = (byte) status;
+		raw[pos + 1] = (byte) (pleth >> 8);
+		raw[pos + 2] = (byte) pleth;
+		raw[pos + 3] = (byte) extraStatus;
+		raw[pos + 4] = (byte) (status + (pleth >> 8) + (pleth & 0xFF) + extraStatus);
 		
 		// Update measurement flags for the whole frame
-		if(frames[nextUnfilledFrame].hasArtifact())
+		if(NoninFrame.hasArtifact(status))
 			hasAnyPacketsWithArtifact = true;
-		if(frames[nextUnfilledFrame].isOutOfTrack())
+		if(NoninFrame.isOutOfTrack(status))
 			hasAnyPacketsWithOutOfTrack = true;
-		if(frames[nextUnfilledFrame].hasSensorAlarm())
+		if(NoninFrame.hasSensorAlarm(status))
 			hasAnyPacketsWithSensorAlarm = true;
 		
-		nextUnfilledFrame++;
-		return true;
+		frames |= 1 << packetIndex;
+		if (packetIndex >= nextUnfilledFrame)
+			nextUnfilledFrame = packetIndex + 1;
+	}
+
+	/**
+	 * Finishes a packet that misses some frames, so that it can be delivered.
+	 * The bytes of the missing frames are set to 0, which is never a valid frame
+	 * as bit 7 of the status is clear.
+	 */
+	void close() {
+		zeroMissingFrames(PACKETS_PER_FRAME);
+		nextUnfilledFrame = PACKETS_PER_FRAME;
+	}
+
+	/**
+	 * Sets to 0 the bytes of the missing frames before a position
+	 * @param end index of the first frame not touched
+	 */
+	private void zeroMissingFrames(int end) {
+		for (int i = 0; i < end; i++) {
+			if (!hasFrame(i)) {
+				int pos = i * NoninFrameSync.FRAME_SIZE;
+				for (int j = 0; j < NoninFrameSync.FRAME_SIZE; j++)
+					raw[pos + j] = 0;
+			}
+		}
 	}
 
 	/**
@@ -268,7 +535,7 @@ public class NoninPacket implements Serializable {
 	 * @return 8-bit integer from the specified packet
 	 */
 	private int get8BitInteger(int packetIndex) {
-		return frames[packetIndex].getExtraStatus();
+		return raw[packetIndex * NoninFrameSync.FRAME_SIZE + 3] & 0xFF;
 	}
 
 	/**
@@ -290,8 +557,8 @@ public class NoninPacket implements Serializable {
 		final int HR_MSB_MASK = 0x03; // = binary 00000011
 		final int HR_LSB_MASK = 0x7F; // = binary 01111111
 		
-		int heartRate = (frames[msbPacketIndex].getExtraStatus() & HR_MSB_MASK) << 7;
-		heartRate += frames[lsbPacketIndex].getExtraStatus() & HR_LSB_MASK;
+		int heartRate = (get8BitInteger(msbPacketIndex) & HR_MSB_MASK) << 7;
+		heartRate += get8BitInteger(lsbPacketIndex) & HR_LSB_MASK;
 		return heartRate;
 	}
 		
@@ -301,10 +568,10 @@ public class NoninPacket implements Serializable {
 	 * the value MISSING_SPO2 is returned.
 	 * 
 	 * @return SpO2 average, or MISSING_SPO2 if no value could be calculated by
-	 *         the Nonin device, or INVALID_DATA if the frame is not complete
+	 *         the Nonin device, or INVALID_DATA if the frame is missing
 	 */
 	public int getSpO2Average() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.SPO2) {
+		if (hasFrame(FrameLocation.SPO2)) {
 			return get8BitInteger(FrameLocation.SPO2);
 		} else {
 			return INVALID_DATA;
@@ -317,10 +584,10 @@ public class NoninPacket implements Serializable {
 	 * device, the value MISSING_HR is returned.
 	 * 
 	 * @return HR average, or MISSING_HR if no value could be calculated by the
-	 *         Nonin device, or INVALID_DATA if the frame is not complete
+	 *         Nonin device, or INVALID_DATA if the frame is missing
 	 */
 	public int getHRAverage() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.HR_LSB) {
+		if (hasFrame(FrameLocation.HR_MSB) && hasFrame(FrameLocation.HR_LSB)) {
 			return getHeartRate(FrameLocation.HR_MSB, FrameLocation.HR_LSB);
 		} else {
 			return INVALID_DATA;
@@ -333,10 +600,10 @@ public class NoninPacket implements Serializable {
 	 * device, the value MISSING_HR is returned.
 	 * 
 	 * @return HR average, or MISSING_HR if no value could be calculated by the
-	 *         Nonin device, or INVALID_DATA if the frame is not complete
+	 *         Nonin device, or INVALID_DATA if the frame is missing
 	 */
 	public int getHRExtendedAverage() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.EXT_HR_LSB) {
+		if (hasFrame(FrameLocation.EXT_HR_MSB) && hasFrame(FrameLocation.EXT_HR_LSB)) {
 			return getHeartRate(FrameLocation.EXT_HR_MSB, FrameLocation.EXT_HR_LSB);
 		} else {
 			return INVALID_DATA;
@@ -349,10 +616,10 @@ public class NoninPacket implements Serializable {
 	 * the value MISSING_SPO2 is returned immediately.
 	 * 
 	 * @return SpO2 average, or MISSING_SPO2 if no value could be calculated by
-	 *         the Nonin device, or INVALID_DATA if the frame is not complete
+	 *         the Nonin device, or INVALID_DATA if the frame is missing
 	 */
 	public int getSpO2ExtendedAverage() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.EXT_SPO2) {
+		if (hasFrame(FrameLocation.EXT_SPO2)) {
 			return get8BitInteger(FrameLocation.EXT_SPO2);
 		} else {
 			return INVALID_DATA;
@@ -365,10 +632,10 @@ public class NoninPacket implements Serializable {
 	 * value MISSING_SPO2 is returned immediately.
 	 * 
 	 * @return SpO2 average, or MISSING_SPO2 if no value could be calculated by
-	 *         the Nonin device, or INVALID_DATA if the frame is not complete
+	 *         the Nonin device, or INVALID_DATA if the frame is missing
 	 */
 	public int getFastSpO2Average() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.SPO2_FAST) {
+		if (hasFrame(FrameLocation.SPO2_FAST)) {
 			return get8BitInteger(FrameLocation.SPO2_FAST);
 		} else {
 			return INVALID_DATA;
@@ -382,10 +649,10 @@ public class NoninPacket implements Serializable {
 	 * value MISSING_SPO2 is returned immediately.
 	 * 
 	 * @return SpO2 measurement, or MISSING_SPO2 if no value could be calculated
-	 *         by the Nonin device, or INVALID_DATA if the frame is not complete
+	 *         by the Nonin device, or INVALID_DATA if the frame is missing
 	 */
 	public int getBeatToBeatSpO2() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.SPO2_BEAT_TO_BEAT) {
+		if (hasFrame(FrameLocation.SPO2_BEAT_TO_BEAT)) {
 			return get8BitInteger(FrameLocation.SPO2_BEAT_TO_BEAT);
 		} else {
 			return INVALID_DATA;
@@ -399,10 +666,10 @@ public class NoninPacket implements Serializable {
 	 * 
 	 * @return Four-beat pulse rate average, as displayed on the oximeter
 	 *         screen, or MISSING_HR if no value could be calculated by the
-	 *         Nonin device, or INVALID_DATA if the frame is not complete
+	 *         Nonin device, or INVALID_DATA if the frame is missing
 	 */
 	public int getDisplayedHRAverage() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.HR_LSB_DISPLAY) {
+		if (hasFrame(FrameLocation.HR_MSB_DISPLAY) && hasFrame(FrameLocation.HR_LSB_DISPLAY)) {
 			return getHeartRate(FrameLocation.HR_MSB_DISPLAY, FrameLocation.HR_LSB_DISPLAY);
 		} else {
 			return INVALID_DATA;
@@ -417,10 +684,10 @@ public class NoninPacket implements Serializable {
 	 * 
 	 * @return Four-beat SpO2 average, as displayed on the oximeter screen, or
 	 *         MISSING_SPO2 if no value could be calculated by the Nonin device,
-	 *         or INVALID_DATA if the frame is not complete
+	 *         or INVALID_DATA if the frame is missing
 	 */
 	public int getDisplayedSpO2Average() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.SPO2_DISPLAY) {
+		if (hasFrame(FrameLocation.SPO2_DISPLAY)) {
 			return get8BitInteger(FrameLocation.SPO2_DISPLAY);
 		} else {
 			return INVALID_DATA;
@@ -435,10 +702,10 @@ public class NoninPacket implements Serializable {
 	 * 
 	 * @return Eight-beat SpO2 average, as displayed on the oximeter screen, or
 	 *         MISSING_SPO2 if no value could be calculated by the Nonin device,
-	 *         or INVALID_DATA if the frame is not complete
+	 *         or INVALID_DATA if the frame is missing
 	 */
 	public int getDisplayedSpO2ExtendedAverage() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.EXT_SPO2_DISPLAY) {
+		if (hasFrame(FrameLocation.EXT_SPO2_DISPLAY)) {
 			return get8BitInteger(FrameLocation.EXT_SPO2_DISPLAY);
 		} else {
 			return INVALID_DATA;
@@ -453,10 +720,10 @@ public class NoninPacket implements Serializable {
 	 * 
 	 * @return Eight-beat pulse rate average, as displayed on the oximeter
 	 *         screen, or MISSING_HR if no value could be calculated by the
-	 *         Nonin device, or INVALID_DATA if the frame is not complete
+	 *         Nonin device, or INVALID_DATA if the frame is missing
 	 */
 	public int getDisplayedHRExtendedAverage() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.EXT_HR_LSB_DISPLAY) {
+		if (hasFrame(FrameLocation.EXT_HR_MSB_DISPLAY) && hasFrame(FrameLocation.EXT_HR_LSB_DISPLAY)) {
 			return getHeartRate(FrameLocation.EXT_HR_MSB_DISPLAY, FrameLocation.EXT_HR_LSB_DISPLAY);
 		} else {
 			return INVALID_DATA;
@@ -468,10 +735,10 @@ public class NoninPacket implements Serializable {
 	 * Oximeter firmware revision level
 	 * 
 	 * @return 8-bit number indicating the oximeter's firmware revision level,
-	 * 			or INVALID_DATA if the frame is not complete
+	 * 			or INVALID_DATA if the frame is missing
 	 */
 	public int getFirmwareVersion() {
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.SOFTWARE_REVISION) {
+		if (hasFrame(FrameLocation.SOFTWARE_REVISION)) {
 			return get8BitInteger(FrameLocation.SOFTWARE_REVISION);
 		} else {
 			return INVALID_DATA;
@@ -484,17 +751,17 @@ public class NoninPacket implements Serializable {
 	 * Nonin 3 Hz timer value
 	 * 
 	 * @return 16-bit number indicating the timestamp provided by the oximeter
-	 *         to this packet, or INVALID_DATA if the frame is not complete
+	 *         to this packet, or INVALID_DATA if the frame is missing
 	 */
 	public int getTimer() {
 		
-		if ( lastValidFrame == -1 || lastValidFrame >= FrameLocation.TIMER_LSB) {
+		if ( !trend && hasFrame(FrameLocation.TIMER_MSB) && hasFrame(FrameLocation.TIMER_LSB)) {
 			// The timer is a 14-bit number.
 			// It is transmitted as the least significant 7 bits of the MSB and LSB bytes
 			final int TIMER_MASK = 0x7F; // = binary 01111111
 			
-			int timerValue = (frames[FrameLocation.TIMER_MSB].getExtraStatus() & TIMER_MASK) << 7;
-			timerValue += (frames[FrameLocation.TIMER_LSB].getExtraStatus() & TIMER_MASK);
+			int timerValue = (get8BitInteger(FrameLocation.TIMER_MSB) & TIMER_MASK) << 7;
+			timerValue += (get8BitInteger(FrameLocation.TIMER_LSB) & TIMER_MASK);
 			return timerValue;
 		} else {
 			return INVALID_DATA;
@@ -508,6 +775,8 @@ public class NoninPacket implements Serializable {
 	 * @return true if this is a SmartPoint measurement, false otherwise
 	 */
 	public boolean isSmartPointMeasurement() {
+		if (!hasFrame(FrameLocation.STAT2))
+			return false;
 		int statusByte2 = get8BitInteger(FrameLocation.STAT2);
 
 		// SPA (SmartPoint measurement) is indicated by bit 5 of the STAT2 byte
@@ -524,6 +793,8 @@ public class NoninPacket implements Serializable {
 	 *         otherwise
 	 */
 	public boolean isBatteryLow() {
+		if (!hasFrame(FrameLocation.STAT2))
+			return false;
 		int statusByte2 = get8BitInteger(FrameLocation.STAT2);
 
 		// Low battery is indicated by bit 0 of the STAT2 byte being set
@@ -538,30 +809,46 @@ public class NoninPacket implements Serializable {
 		
 		int[] plethSamples = new int[PACKETS_PER_FRAME];
 		for(int packetNum = 0; packetNum < PACKETS_PER_FRAME; packetNum++)
-			plethSamples[packetNum] = frames[packetNum].getPleth();
+			plethSamples[packetNum] = getPlethSample(packetNum);
 		return plethSamples;
 		
 	}
+
+	/**
+	 * Gets one sample of the PPG waveform, without allocating an array
+	 * @param packetIndex index of the frame, from 0 to 24
+	 * @return 16-bit PPG value, or INVALID_DATA if the frame is missing
+	 */
+	public int getPlethSample(int packetIndex) {
+		if (!hasFrame(packetIndex))
+			return INVALID_DATA;
+		int pos = packetIndex * NoninFrameSync.FRAME_SIZE;
+		return ((raw[pos + 1] & 0xFF) << 8) + (raw[pos + 2] & 0xFF);
+	}
+
+	/**
+	 * Copies the raw bytes of the frames received so far, in the layout sent by the device.
+	 * The bytes of missing frames are all 0.
+	 * @param buffer where to copy the bytes, must have room for RAW_SIZE bytes
+	 * @param offset position in the buffer
+	 * @return the number of bytes copied
+	 */
+	public int getRawBytes(byte[] buffer, int offset) {
+		int length = nextUnfilledFrame * NoninFrameSync.FRAME_SIZE;
+		System.arraycopy(raw, 0, buffer, offset, length);
+		return length;
+	}
 	
 	/**
 	 * Gets the frame at the specified index (from 0 to 24)
+	 * A new frame object is decoded from the raw bytes at each call.
 	 * @param packetIndex, from 0 to 24
 	 * @return frame at the index
 	 */
 	public NoninFrame getFrame(int packetIndex) {
-		return frames[packetIndex];
+		return new NoninFrame(raw, packetIndex * NoninFrameSync.FRAME_SIZE);
 	}
 	
-	
-	
-	/**
-	 * Stores the last nextUnfilledFrame as the last
-	 */
-	private void setLastValidFrame() {
-		if (lastValidFrame == -1) {
-			lastValidFrame = nextUnfilledFrame;
-		}
-	}
 
 	/**
 	 * Gets the current frames counter (from 0 to 25)
@@ -570,13 +857,13 @@ public class NoninPacket implements Serializable {
 	public int getFramesCounter() {
 		return nextUnfilledFrame;
 	}
-	
+
 	/**
-	 * Stores the last nextUnfilledFrame as the last
-	 * Should return -1 in case of full and valid frame
+	 * Gets the number of PPG samples in the packet
+	 * @return the number of frames, or 0 for trend packets which have no PPG
 	 */
-	private int getLastValidFrame() {
-		return lastValidFrame;
+	public int getPlethSampleCount() {
+		return trend ? 0 : nextUnfilledFrame;
 	}
 	
 }
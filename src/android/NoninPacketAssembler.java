@@ -0,0 +1,186 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Puts the frames of format 7 (and format 2) at their position in the packet, even when some are lost.
+ * The position of a frame is certain only when counted from a sync frame with no gap in between:
+ * forward from the sync frame of the packet, or backward from the sync frame of the next packet.
+ * After a gap the frames are kept aside until the next sync frame, which tells their position.
+ * The frames before and after a gap are merged into the same packet if their positions do not
+ * overlap and the bytes skipped are fewer than those of the frames missing in between plus a
+ * whole packet, as frames of two different packets would be farther apart; otherwise they make two packets.
+ * A sync frame arriving before the 25th frame, with no gap, means that frames were lost
+ * without leaving a trace: the frames of that packet cannot be placed and are discarded.
+ * Packets that miss some frames are closed and delivered anyway, see NoninPacket.getMissingFrames().
+ *
+ * @author Dario Salvi
+ */
+public class NoninPacketAssembler {
+
+    //packet being assembled, frames at their position
+    private final NoninPacket current = new NoninPacket();
+    //position of the next frame in the current packet, -1 if unknown
+    private int slot = -1;
+
+    //frames received after a gap, waiting for the next sync frame to know their position, the oldest first
+    private final int[] status = new int[NoninPacket.PACKETS_PER_FRAME - 1];
+    private final int[] pleth = new int[NoninPacket.PACKETS_PER_FRAME - 1];
+    private final int[] extra = new int[NoninPacket.PACKETS_PER_FRAME - 1];
+    private int pendingStart = 0;
+    private int pendingCount = 0;
+    //bytes between the current packet and the frames kept aside, -1 if unknown
+    private int gap = -1;
+
+    //packets ready to be taken, at most two become ready with a single frame
+    private final NoninPacket[] ready = {new NoninPacket(), new NoninPacket()};
+    private int readyStart = 0;
+    private int readyCount = 0;
+
+    private NoninCounters counters = new NoninCounters();
+
+    /**
+     * Adds a valid frame
+     * @param s the status byte
+     * @param p the PPG sample
+     * @param e the extra byte
+     * @param skipped bytes between the previous frame added and this one, 0 if contiguous, -1 if unknown
+     * @return true if a packet is ready, see poll()
+     */
+    public boolean push(int s, int p, int e, int skipped) {
+        boolean sync = (s & 0x01) != 0;
+        if (skipped != 0) {
+            if (pendingCount > 0) {
+                // between two gaps, their position cannot be known
+                if (gap >= 0 && skipped > 0)
+                    gap += pendingCount * NoninFrameSync.FRAME_SIZE + skipped;
+                else
+                    gap = -1;
+                orphan(pendingCount);
+                pendingCount = 0;
+            } else {
+                gap = skipped;
+            }
+            slot = -1;
+        }
+
+        if (sync) {
+            if (skipped == 0 && slot > 0 && slot < NoninPacket.PACKETS_PER_FRAME) {
+                // too early, frames of this packet were lost without a trace
+                orphan(Integer.bitCount(~current.getMissingFrames() & NoninPacket.ALL_FRAMES));
+                current.clear();
+            }
+            placePending();
+            emit();
+            current.setFrame(0, s, p, e);
+            slot = 1;
+            return readyCount > 0;
+        }
+
+        if (slot == NoninPacket.PACKETS_PER_FRAME) {
+            // a sync frame was expected, the position of the next frames is not known
+            slot = -1;
+            gap = 0;
+        }
+        if (slot >= 0) {
+            current.setFrame(slot++, s, p, e);
+            if (slot == NoninPacket.PACKETS_PER_FRAME)
+                emit();
+            return readyCount > 0;
+        }
+
+        if (pendingCount == status.length) {
+            // more frames than a packet before a sync frame, the oldest cannot be placed
+            orphan(1);
+            pendingStart = (pendingStart + 1) % status.length;
+            pendingCount--;
+        }
+        int i = (pendingStart + pendingCount) % status.length;
+        status[i] = s;
+        pleth[i] = p;
+        extra[i] = e;
+        pendingCount++;
+        return readyCount > 0;
+    }
+
+    /**
+     * Takes the oldest packet that is ready
+     * @param packet where the packet is copied, complete or closed with missing frames
+     * @return false if no packet is ready
+     */
+    public boolean poll(NoninPacket packet) {
+        if (readyCount == 0)
+            return false;
+        packet.copyFrom(ready[readyStart]);
+        readyStart = (readyStart + 1) % ready.length;
+        readyCount--;
+        return true;
+    }
+
+    /**
+     * Forgets all the frames received so far
+     */
+    public void reset() {
+        current.clear();
+        slot = -1;
+        pendingStart = 0;
+        pendingCount = 0;
+        gap = -1;
+        readyStart = 0;
+        readyCount = 0;
+    }
+
+    /**
+     * Sets where the partial packets and the frames that cannot be placed are counted
+     * @param counters the counters of the device
+     */
+    public void setCounters(NoninCounters counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * Puts the frames kept aside at the end of a packet, as a sync frame has just arrived
+     */
+    private void placePending() {
+        if (pendingCount == 0)
+            return;
+        int first = NoninPacket.PACKETS_PER_FRAME - pendingCount;
+        int received = ~current.getMissingFrames() & NoninPacket.ALL_FRAMES;
+        int last = 31 - Integer.numberOfLeadingZeros(received);
+        if (received != 0 && (gap < 0 || last >= first
+                || gap >= (first - last - 1) * NoninFrameSync.FRAME_SIZE + NoninPacket.RAW_SIZE)) {
+            // they belong to a later packet than the frames before the gap
+            emit();
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            int j = (pendingStart + i) % status.length;
+            current.setFrame(first + i, status[j], pleth[j], extra[j]);
+        }
+        pendingStart = 0;
+        pendingCount = 0;
+    }
+
+    /**
+     * Makes the current packet ready, if it has any frame, and starts a new one
+     */
+    private void emit() {
+        if (current.getFramesCounter() > 0) {
+            if (!current.isComplete()) {
+                counters.addPartialPacket();
+                current.close();
+            }
+            if (readyCount == ready.length) {
+                // not polled, the oldest is lost
+                readyStart = (readyStart + 1) % ready.length;
+                readyCount--;
+            }
+            ready[(readyStart + readyCount) % ready.length].copyFrom(current);
+            readyCount++;
+        }
+        current.clear();
+        gap = -1;
+    }
+
+    private void orphan(int frames) {
+        if (frames > 0)
+            counters.addOrphanFrames(frames);
+    }
+}
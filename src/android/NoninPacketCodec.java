@@ -0,0 +1,190 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Compact encoding of packets, for storage.
+ * Each packet is encoded as:
+ * uint8 number of frames (n)
+ * status bytes, run-length encoded
+ * extra bytes, run-length encoded
+ * n PPG samples, each one as the zigzag varint of its difference from a linear prediction
+ * made with the two previous samples (2 * previous - second previous), that is the difference
+ * of the differences. As the PPG is smooth at 75 Hz, most samples fit in one byte.
+ * The status and extra bytes are XORed with the byte of the same frame in the previous packet
+ * before being run-length encoded, as they rarely change from one packet to the next most
+ * packets need a single run. A run is a varint length followed by the value.
+ * The checksums are not stored, they are computed again when decoding.
+ * Encoder and decoder keep the previous packet, so packets must be decoded in the order they
+ * were encoded, starting from a reset encoder and decoder.
+ *
+ * @author Dario Salvi
+ */
+public class NoninPacketCodec {
+
+    /**
+     * Largest encoding of a packet, in bytes
+     */
+    public static final int MAX_ENCODED_SIZE = 1 + 2 * 2 * NoninPacket.PACKETS_PER_FRAME + 3 * NoninPacket.PACKETS_PER_FRAME;
+
+    /**
+     * Encodes packets one after the other
+     */
+    public static class Encoder {
+
+        private final int[] status = new int[NoninPacket.PACKETS_PER_FRAME];
+        private final int[] extra = new int[NoninPacket.PACKETS_PER_FRAME];
+        private final byte[] raw = new byte[NoninPacket.RAW_SIZE];
+        private int pleth = 0;
+        private int previousPleth = 0;
+
+        /**
+         * Encodes a packet
+         * @param packet the packet
+         * @param buffer where the encoding is written, must have room for MAX_ENCODED_SIZE bytes
+         * @param offset position in the buffer
+         * @return the number of bytes written
+         */
+        public int encode(NoninPacket packet, byte[] buffer, int offset) {
+            int frames = packet.getFramesCounter();
+            packet.getRawBytes(raw, 0);
+            int pos = offset;
+            buffer[pos++] = (byte) frames;
+            pos = encodeRuns(raw, 0, status, frames, buffer, pos);
+            pos = encodeRuns(raw, 3, extra, frames, buffer, pos);
+            for (int i = 0; i < frames; i++) {
+                int sample = packet.getPlethSample(i);
+                int delta = sample - (2 * pleth - previousPleth);
+                previousPleth = pleth;
+                pleth = sample;
+                pos = putVarint(buffer, pos, (delta << 1) ^ (delta >> 31));
+            }
+            return pos - offset;
+        }
+
+        /**
+         * Forgets the previous packet, the next one is encoded on its own
+         */
+        public void reset() {
+            for (int i = 0; i < NoninPacket.PACKETS_PER_FRAME; i++) {
+                status[i] = 0;
+                extra[i] = 0;
+            }
+            pleth = 0;
+            previousPleth = 0;
+        }
+
+        /**
+         * Run-length encodes one byte of each frame, XORed with the previous packet
+         * @param raw the frames
+         * @param field position of the byte in the frame
+         * @param previous the bytes of the previous packet, updated
+         */
+        private static int encodeRuns(byte[] raw, int field, int[] previous, int frames, byte[] buffer, int pos) {
+            int i = 0;
+            while (i < frames) {
+                int value = raw[i * NoninFrameSync.FRAME_SIZE + field] & 0xFF;
+                int x = value ^ previous[i];
+                previous[i] = value;
+                int run = 1;
+                while (i + run < frames) {
+                    int next = raw[(i + run) * NoninFrameSync.FRAME_SIZE + field] & 0xFF;
+                    if ((next ^ previous[i + run]) != x)
+                        break;
+                    previous[i + run] = next;
+                    run++;
+                }
+                pos = putVarint(buffer, pos, run);
+                buffer[pos++] = (byte) x;
+                i += run;
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Decodes packets one after the other
+     */
+    public static class Decoder {
+
+        private final int[] status = new int[NoninPacket.PACKETS_PER_FRAME];
+        private final int[] extra = new int[NoninPacket.PACKETS_PER_FRAME];
+        private int pleth = 0;
+        private int previousPleth = 0;
+        //position reached in the buffer by the last read
+        private int pos;
+
+        /**
+         * Decodes a packet
+         * @param buffer the encoded bytes
+         * @param offset position of the packet in the buffer
+         * @param packet where the frames are added, it is cleared first
+         * @return the number of bytes read
+         * @throws IllegalArgumentException if the bytes are not a valid encoding
+         */
+        public int decode(byte[] buffer, int offset, NoninPacket packet) {
+            pos = offset;
+            int frames = buffer[pos++] & 0xFF;
+            if (frames > NoninPacket.PACKETS_PER_FRAME)
+                throw new IllegalArgumentException("Invalid encoding, " + frames + " frames");
+            decodeRuns(buffer, status, frames);
+            decodeRuns(buffer, extra, frames);
+            packet.clear();
+            for (int i = 0; i < frames; i++) {
+                int zigzag = getVarint(buffer);
+                int sample = 2 * pleth - previousPleth + ((zigzag >>> 1) ^ -(zigzag & 1));
+                previousPleth = pleth;
+                pleth = sample;
+                // the frames missing from a packet have status 0
+                if ((status[i] & 0x80) != 0)
+                    packet.setFrame(i, status[i], sample, extra[i]);
+            }
+            if (frames == NoninPacket.PACKETS_PER_FRAME && !packet.isComplete())
+                packet.close();
+            return pos - offset;
+        }
+
+        /**
+         * Forgets the previous packet, to decode a sequence encoded by a reset encoder
+         */
+        public void reset() {
+            for (int i = 0; i < NoninPacket.PACKETS_PER_FRAME; i++) {
+                status[i] = 0;
+                extra[i] = 0;
+            }
+            pleth = 0;
+            previousPleth = 0;
+        }
+
+        private void decodeRuns(byte[] buffer, int[] previous, int frames) {
+            int i = 0;
+            while (i < frames) {
+                int run = getVarint(buffer);
+                int x = buffer[pos++] & 0xFF;
+                if (run == 0 || i + run > frames)
+                    throw new IllegalArgumentException("Invalid encoding, run of " + run);
+                for (int end = i + run; i < end; i++)
+                    previous[i] ^= x;
+            }
+        }
+
+        private int getVarint(byte[] buffer) {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = buffer[pos++] & 0xFF;
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && shift < 35);
+            return value;
+        }
+    }
+
+    private static int putVarint(byte[] buffer, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+}
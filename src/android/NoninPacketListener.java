@@ -0,0 +1,17 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Receives the packets assembled by the parser
+ *
+ * @author Dario Salvi
+ */
+public interface NoninPacketListener {
+
+    /**
+     * Called for each complete packet.
+     * The packet is only valid until this method returns, unless it is retained,
+     * see Nonin.NoninHandler for the ownership rules.
+     * @param frame the packet
+     */
+    public void handle(NoninPacket frame);
+}
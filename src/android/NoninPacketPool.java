@@ -0,0 +1,74 @@
+package org.apache.cordova.nonin;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Recycles packets so that, once warmed up, the parser does not allocate any.
+ * Packets are leased with acquire() and come back to the pool when their last
+ * reference is released (see NoninPacket.retain() and NoninPacket.release()).
+ * If all packets are leased, a new one is created, so a slow consumer never blocks the parser.
+ *
+ * @author Dario Salvi
+ */
+public class NoninPacketPool {
+
+    /**
+     * Default number of idle packets kept by the pool
+     */
+    public static final int DEFAULT_SIZE = 8;
+
+    private final ArrayBlockingQueue<NoninPacket> idle;
+
+    /**
+     * Number of packets created by the pool
+     */
+    private volatile int created = 0;
+
+    /**
+     * Creates a pool with DEFAULT_SIZE idle packets at most
+     */
+    public NoninPacketPool() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a pool
+     * @param size maximum number of idle packets kept, the exceeding ones are left to the garbage collector
+     */
+    public NoninPacketPool(int size) {
+        idle = new ArrayBlockingQueue<NoninPacket>(size);
+    }
+
+    /**
+     * Leases an empty packet, the caller owns its only reference
+     * @return the packet
+     */
+    public NoninPacket acquire() {
+        NoninPacket packet = idle.poll();
+        if (packet == null) {
+            packet = new NoninPacket();
+            created++;
+        } else {
+            packet.clear();
+        }
+        packet.lease(this);
+        return packet;
+    }
+
+    /**
+     * Called when the last reference to a packet is released
+     * @param packet the packet
+     */
+    void recycle(NoninPacket packet) {
+        idle.offer(packet);
+    }
+
+    /**
+     * Tells how many packets have been created so far, useful to verify that
+     * consumers release what they retain
+     * @return the number of packets created
+     */
+    public int getCreatedCount() {
+        return created;
+    }
+}
@@ -0,0 +1,92 @@
+package org.apache.cordova.nonin;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Lock-free bounded queue with a single producer and a single consumer.
+ * offer() must only be called by one thread (the parser) and poll() by another one
+ * (the dispatcher), neither of them ever waits for the other.
+ * The producer may call poll() too, to drop the oldest packet when the queue is full:
+ * the head is moved with a compare and set, so each packet is taken by only one of them.
+ *
+ * @author Dario Salvi
+ */
+public class NoninPacketQueue {
+
+    private static final AtomicLongFieldUpdater<NoninPacketQueue> HEAD =
+            AtomicLongFieldUpdater.newUpdater(NoninPacketQueue.class, "head");
+    private static final AtomicLongFieldUpdater<NoninPacketQueue> TAIL =
+            AtomicLongFieldUpdater.newUpdater(NoninPacketQueue.class, "tail");
+
+    private final NoninPacket[] buffer;
+    private final int mask;
+
+    /**
+     * Position of the next packet to be read, written by the consumer and, when dropping, by the producer
+     */
+    private volatile long head = 0;
+    /**
+     * Position of the next packet to be written, only written by the producer
+     */
+    private volatile long tail = 0;
+
+    /**
+     * Creates the queue
+     * @param capacity minimum number of packets the queue can hold, rounded up to a power of 2
+     */
+    public NoninPacketQueue(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        buffer = new NoninPacket[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds a packet, producer side
+     * @param packet the packet
+     * @return false if the queue is full and the packet was not added
+     */
+    public boolean offer(NoninPacket packet) {
+        long t = tail;
+        if (t - head >= buffer.length)
+            return false;
+        buffer[(int) t & mask] = packet;
+        TAIL.lazySet(this, t + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest packet, consumer side, or producer side to make room
+     * @return the packet, or null if the queue is empty
+     */
+    public NoninPacket poll() {
+        while (true) {
+            long h = head;
+            if (h >= tail)
+                return null;
+            // the slot is not cleared: once the head has moved the producer may already be writing it
+            NoninPacket packet = buffer[(int) h & mask];
+            if (HEAD.compareAndSet(this, h, h + 1))
+                return packet;
+        }
+    }
+
+    /**
+     * Number of packets currently in the queue, can be called from any thread
+     * @return the number of packets
+     */
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Maximum number of packets the queue can hold
+     * @return the capacity
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,321 @@
+package org.apache.cordova.nonin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Converts the packets into the objects sent to JavaScript
+ *
+ * @author Dario Salvi
+ */
+public class NoninPacketSerializer {
+
+    /**
+     * Version of the binary layout, first byte of each binary packet
+     */
+    public static final int BINARY_VERSION = 1;
+
+    /**
+     * First byte of a binary batch of packets, see NoninBatch
+     */
+    public static final int BINARY_BATCH_VERSION = 2;
+
+    /**
+     * Size of the binary header, before the PPG samples
+     */
+    public static final int BINARY_HEADER_SIZE = 20;
+
+    /**
+     * Highest PPG sample sent, 0xFFFF is reserved for the missing samples in the binary layout
+     */
+    public static final int MAX_PPG_SAMPLE = 0xFFFE;
+
+    //bits of the flags byte in the binary layout
+    public static final int FLAG_ARTIFACTS = 0x01;
+    public static final int FLAG_SUSTAINED_ARTIFACTS = 0x02;
+    public static final int FLAG_SENSOR_ALARM = 0x04;
+    public static final int FLAG_BATTERY_LOW = 0x08;
+    public static final int FLAG_SMART_POINT = 0x10;
+    public static final int FLAG_MISSING_FRAMES = 0x20;
+
+    /**
+     * Names of the fields that can be requested, the bit of each field in a
+     * projection is 1 shifted by its position in this array
+     */
+    public static final String[] FIELD_NAMES = {"spo2", "instantSpo2", "hr", "timestamp", "timer",
+            "hasArtifacts", "hasSustainedArtifacts", "nofinger", "batterylow", "sensorAlarm", "smartPoint", "PPG"};
+
+    //bits of the fields in a projection
+    public static final int FIELD_SPO2 = 1;
+    public static final int FIELD_INSTANT_SPO2 = 1 << 1;
+    public static final int FIELD_HR = 1 << 2;
+    public static final int FIELD_TIMESTAMP = 1 << 3;
+    public static final int FIELD_TIMER = 1 << 4;
+    public static final int FIELD_ARTIFACTS = 1 << 5;
+    public static final int FIELD_SUSTAINED_ARTIFACTS = 1 << 6;
+    public static final int FIELD_NOFINGER = 1 << 7;
+    public static final int FIELD_BATTERY_LOW = 1 << 8;
+    public static final int FIELD_SENSOR_ALARM = 1 << 9;
+    public static final int FIELD_SMART_POINT = 1 << 10;
+    public static final int FIELD_PPG = 1 << 11;
+    public static final int ALL_FIELDS = (1 << 12) - 1;
+
+    /**
+     * Computes the projection corresponding to a list of field names
+     * @param names the names of the fields, as in FIELD_NAMES, null for all fields
+     * @return the projection, a combination of the FIELD_ constants
+     * @throws JSONException if the list contains something that is not a string
+     * @throws IllegalArgumentException if a name is unknown
+     */
+    public static int parseFields(JSONArray names) throws JSONException {
+        if (names == null)
+            return ALL_FIELDS;
+        int fields = 0;
+        for (int i = 0; i < names.length(); i++) {
+            String name = names.getString(i);
+            int bit = 0;
+            for (int f = 0; f < FIELD_NAMES.length; f++) {
+                if (FIELD_NAMES[f].equals(name))
+                    bit = 1 << f;
+            }
+            if (bit == 0)
+                throw new IllegalArgumentException("Unknown field " + name);
+            fields |= bit;
+        }
+        return fields;
+    }
+
+    /**
+     * Builds the JSON representation of a packet with all the fields
+     *
+     * @param packet    the packet
+     * @param timestamp ms since 1970 when the packet was received
+     * @return the JSON object
+     * @throws JSONException if the object cannot be built
+     */
+    public static JSONObject toJSON(NoninPacket packet, long timestamp) throws JSONException {
+        return toJSON(packet, timestamp, ALL_FIELDS);
+    }
+
+    /**
+     * Builds the JSON representation of a packet, only with the requested fields:
+     * data.spo2 -> blood saturation (avg over 4 pulses)
+     * data.instantSpo2 -> instantaneous (non averaged) spo2
+     * data.hr -> heart rate (avg over 4 pulses)
+     * data.timestamp -> ms since 1970
+     * data.timer -> internal device timer
+     * data.hasArtifacts -> true if the signal has artifacts (low quality)
+     * data.hasSustainedArtifacts -> true if the signal has sustained artifacts (even lower quality)
+     * data.nofinger -> true if the finger was removed from the device
+     * data.batterylow -> true if batteries are low
+     * data.sensorAlarm -> true if data is unusable
+     * data.smartPoint -> true if very precise measurement
+     * data.PPG -> array of PPG samples up to MAX_PPG_SAMPLE, INVALID_DATA for the missing frames
+     * data.missing -> positions (0 to 24) of the missing frames, only if some frames are missing,
+     *                 the values they carry are INVALID_DATA
+     *
+     * @param packet    the packet
+     * @param timestamp ms since 1970 when the packet was received
+     * @param fields    the projection, a combination of the FIELD_ constants
+     * @return the JSON object
+     * @throws JSONException if the object cannot be built
+     */
+    public static JSONObject toJSON(NoninPacket packet, long timestamp, int fields) throws JSONException {
+        return toJSON(packet, timestamp, fields, null, 0);
+    }
+
+    /**
+     * Builds the JSON representation of a packet, only with the requested fields,
+     * with PPG samples given separately, for example filtered by NoninPlethFilter
+     *
+     * @param packet    the packet
+     * @param timestamp ms since 1970 when the packet was received
+     * @param fields    the projection, a combination of the FIELD_ constants
+     * @param ppg       the PPG samples to send, null to send those of the packet
+     * @param ppgCount  number of samples in ppg
+     * @return the JSON object
+     * @throws JSONException if the object cannot be built
+     */
+    public static JSONObject toJSON(NoninPacket packet, long timestamp, int fields, int[] ppg, int ppgCount) throws JSONException {
+        JSONObject r = new JSONObject();
+        if ((fields & FIELD_SPO2) != 0)
+            r.put("spo2", packet.getSpO2Average());
+        if ((fields & FIELD_INSTANT_SPO2) != 0)
+            r.put("instantSpo2", packet.getBeatToBeatSpO2());
+        if ((fields & FIELD_HR) != 0)
+            r.put("hr", packet.getHRAverage());
+        if ((fields & FIELD_TIMESTAMP) != 0)
+            r.put("timestamp", timestamp);
+        if ((fields & FIELD_TIMER) != 0)
+            r.put("timer", packet.getTimer());
+        if ((fields & FIELD_ARTIFACTS) != 0)
+            r.put("hasArtifacts", packet.hasAnyArtifact());
+        if ((fields & FIELD_SUSTAINED_ARTIFACTS) != 0)
+            r.put("hasSustainedArtifacts", packet.hasAnyOutOfTrack());
+        if ((fields & FIELD_NOFINGER) != 0)
+            r.put("nofinger", packet.hasAnySensorAlarm());
+        if ((fields & FIELD_BATTERY_LOW) != 0)
+            r.put("batterylow", packet.isBatteryLow());
+        if ((fields & FIELD_SENSOR_ALARM) != 0)
+            r.put("sensorAlarm", packet.hasAnySensorAlarm());
+        if ((fields & FIELD_SMART_POINT) != 0)
+            r.put("smartPoint", packet.isSmartPointMeasurement());
+        if ((fields & FIELD_PPG) != 0) {
+            JSONArray ppgsamples = new JSONArray();
+            if (ppg != null) {
+                for (int i = 0; i < ppgCount; i++) {
+                    ppgsamples.put(ppg[i]);
+                }
+            } else {
+                int samples = packet.getPlethSampleCount();
+                for (int i = 0; i < samples; i++) {
+                    ppgsamples.put(getPlethSample(packet, i));
+                }
+            }
+            r.put("PPG", ppgsamples);
+        }
+        int missing = packet.getMissingFrames();
+        if (missing != 0)
+            r.put("missing", toPositions(missing));
+        return r;
+    }
+
+    /**
+     * Lists the positions of the bits set
+     * @param frames bit i set for frame i, as given by NoninPacket.getMissingFrames()
+     * @return the positions, in ascending order
+     */
+    static JSONArray toPositions(int frames) {
+        JSONArray positions = new JSONArray();
+        for (int i = 0; i < NoninPacket.PACKETS_PER_FRAME; i++) {
+            if ((frames & (1 << i)) != 0)
+                positions.put(i);
+        }
+        return positions;
+    }
+
+    /**
+     * Builds the binary representation of a packet with all the fields
+     *
+     * @param packet    the packet
+     * @param timestamp ms since 1970 when the packet was received
+     * @return the bytes
+     */
+    public static byte[] toBytes(NoninPacket packet, long timestamp) {
+        return toBytes(packet, timestamp, ALL_FIELDS);
+    }
+
+    /**
+     * Builds the binary representation of a packet, a fixed layout in big endian order:
+     * offset 0, uint8: version of the layout (BINARY_VERSION)
+     * offset 1, uint8: flags, bit 0 hasArtifacts, bit 1 hasSustainedArtifacts,
+     *                  bit 2 sensorAlarm (and nofinger), bit 3 batterylow, bit 4 smartPoint,
+     *                  bit 5 some frames are missing (their PPG samples are 0xFFFF,
+     *                  NoninPacket.INVALID_DATA as uint16, decoded to -1 in JavaScript as in JSON)
+     * offset 2, int16: spo2
+     * offset 4, int16: instantSpo2
+     * offset 6, int16: hr
+     * offset 8, int16: timer
+     * offset 10, float64: timestamp, ms since 1970
+     * offset 18, uint16: number of PPG samples (n)
+     * offset 20, n x uint16: PPG samples, up to MAX_PPG_SAMPLE
+     * The fields that are not requested are not computed, numbers are set to
+     * NoninPacket.INVALID_DATA, flags to 0 (except the missing frames) and no PPG samples are included.
+     *
+     * @param packet    the packet
+     * @param timestamp ms since 1970 when the packet was received
+     * @param fields    the projection, a combination of the FIELD_ constants
+     * @return the bytes
+     */
+    public static byte[] toBytes(NoninPacket packet, long timestamp, int fields) {
+        return toBytes(packet, timestamp, fields, null, 0);
+    }
+
+    /**
+     * Builds the binary representation of a packet as in toBytes(packet, timestamp, fields),
+     * with PPG samples given separately, for example filtered by NoninPlethFilter
+     *
+     * @param packet    the packet
+     * @param timestamp ms since 1970 when the packet was received
+     * @param fields    the projection, a combination of the FIELD_ constants
+     * @param ppg       the PPG samples to send, null to send those of the packet
+     * @param ppgCount  number of samples in ppg
+     * @return the bytes
+     */
+    public static byte[] toBytes(NoninPacket packet, long timestamp, int fields, int[] ppg, int ppgCount) {
+        int samples = (fields & FIELD_PPG) == 0 ? 0 : (ppg != null ? ppgCount : packet.getPlethSampleCount());
+        byte[] buffer = new byte[BINARY_HEADER_SIZE + 2 * samples];
+        buffer[0] = (byte) BINARY_VERSION;
+        buffer[1] = (byte) getFlags(packet, fields);
+        putShort(buffer, 2, (fields & FIELD_SPO2) != 0 ? packet.getSpO2Average() : NoninPacket.INVALID_DATA);
+        putShort(buffer, 4, (fields & FIELD_INSTANT_SPO2) != 0 ? packet.getBeatToBeatSpO2() : NoninPacket.INVALID_DATA);
+        putShort(buffer, 6, (fields & FIELD_HR) != 0 ? packet.getHRAverage() : NoninPacket.INVALID_DATA);
+        putShort(buffer, 8, (fields & FIELD_TIMER) != 0 ? packet.getTimer() : NoninPacket.INVALID_DATA);
+        putLong(buffer, 10, Double.doubleToLongBits((fields & FIELD_TIMESTAMP) != 0 ? timestamp : NoninPacket.INVALID_DATA));
+        putShort(buffer, 18, samples);
+        for (int i = 0; i < samples; i++)
+            putShort(buffer, BINARY_HEADER_SIZE + 2 * i, ppg != null ? ppg[i] : getPlethSample(packet, i));
+        return buffer;
+    }
+
+    /**
+     * Gives a PPG sample as sent, in JSON and binary alike
+     * @param packet the packet
+     * @param packetIndex index of the frame, from 0 to 24
+     * @return the sample capped at MAX_PPG_SAMPLE, INVALID_DATA if the frame is missing
+     */
+    public static int getPlethSample(NoninPacket packet, int packetIndex) {
+        int sample = packet.getPlethSample(packetIndex);
+        return sample > MAX_PPG_SAMPLE ? MAX_PPG_SAMPLE : sample;
+    }
+
+    /**
+     * Packs the boolean indicators of a packet into the flags of the binary layout
+     * @param packet the packet
+     * @return the flags, a combination of the FLAG_ constants
+     */
+    public static int getFlags(NoninPacket packet) {
+        return getFlags(packet, ALL_FIELDS);
+    }
+
+    /**
+     * Packs the requested boolean indicators of a packet into the flags of the binary layout
+     * @param packet the packet
+     * @param fields the projection, a combination of the FIELD_ constants
+     * @return the flags, a combination of the FLAG_ constants
+     */
+    public static int getFlags(NoninPacket packet, int fields) {
+        int flags = 0;
+        if ((fields & FIELD_ARTIFACTS) != 0 && packet.hasAnyArtifact())
+            flags |= FLAG_ARTIFACTS;
+        if ((fields & FIELD_SUSTAINED_ARTIFACTS) != 0 && packet.hasAnyOutOfTrack())
+            flags |= FLAG_SUSTAINED_ARTIFACTS;
+        if ((fields & (FIELD_NOFINGER | FIELD_SENSOR_ALARM)) != 0 && packet.hasAnySensorAlarm())
+            flags |= FLAG_SENSOR_ALARM;
+        if ((fields & FIELD_BATTERY_LOW) != 0 && packet.isBatteryLow())
+            flags |= FLAG_BATTERY_LOW;
+        if ((fields & FIELD_SMART_POINT) != 0 && packet.isSmartPointMeasurement())
+            flags |= FLAG_SMART_POINT;
+        if (!packet.isComplete())
+            flags |= FLAG_MISSING_FRAMES;
+        return flags;
+    }
+
+    static void putShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 8);
+        buffer[offset + 1] = (byte) value;
+    }
+
+    static void putInt(byte[] buffer, int offset, int value) {
+        putShort(buffer, offset, value >> 16);
+        putShort(buffer, offset + 2, value);
+    }
+
+    static void putLong(byte[] buffer, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>= 8;
+        }
+    }
+}
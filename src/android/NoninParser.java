@@ -0,0 +1,150 @@
+package org.apache.cordova.nonin;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses the stream of bytes coming from the Nonin into packets.
+ * Runs until the stream ends, fails or stop() is called.
+ *
+ * @author Carmelo Velardo, Dario Salvi
+ */
+public class NoninParser implements Runnable {
+
+    /**
+     * Size of the chunks read from the stream
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    private final InputStream inStream;
+    private final NoninPacketListener listener;
+    private final NoninPacketPool pool;
+    private final NoninCounters counters;
+
+    /**
+     * Used by the parsing thread
+     */
+    private volatile boolean keepparsing = true;
+    /**
+     * Exception that ended the parsing, if any
+     */
+    private volatile IOException error = null;
+
+    //turns the bytes into packets, according to the data format
+    private final NoninDecoder decoder;
+    //packet being filled, leased from the pool
+    private NoninPacket packet;
+
+    /**
+     * Creates the parser, with its own pool of packets
+     * @param inStream the stream of bytes from the device
+     * @param listener receives the packets, can be null
+     */
+    public NoninParser(InputStream inStream, NoninPacketListener listener) {
+        this(inStream, listener, new NoninPacketPool());
+    }
+
+    /**
+     * Creates the parser for data format 7
+     * @param inStream the stream of bytes from the device
+     * @param listener receives the packets, can be null
+     * @param pool where the packets are taken from
+     */
+    public NoninParser(InputStream inStream, NoninPacketListener listener, NoninPacketPool pool) {
+        this(inStream, listener, pool, new NoninFormat7Decoder());
+    }
+
+    /**
+     * Creates the parser
+     * @param inStream the stream of bytes from the device
+     * @param listener receives the packets, can be null
+     * @param pool where the packets are taken from
+     * @param decoder decodes the data format set on the device
+     */
+    public NoninParser(InputStream inStream, NoninPacketListener listener, NoninPacketPool pool, NoninDecoder decoder) {
+        this(inStream, listener, pool, decoder, new NoninCounters());
+    }
+
+    /**
+     * Creates the parser
+     * @param inStream the stream of bytes from the device
+     * @param listener receives the packets, can be null
+     * @param pool where the packets are taken from
+     * @param decoder decodes the data format set on the device
+     * @param counters where bytes, frames and packets are counted
+     */
+    public NoninParser(InputStream inStream, NoninPacketListener listener, NoninPacketPool pool, NoninDecoder decoder,
+                       NoninCounters counters) {
+        this.inStream = inStream;
+        this.listener = listener;
+        this.pool = pool;
+        this.decoder = decoder;
+        this.counters = counters;
+        decoder.setCounters(counters);
+        this.packet = pool.acquire();
+    }
+
+    @Override
+    public void run() {
+        byte[] chunk = new byte[CHUNK_SIZE];
+
+        while (keepparsing) {
+            int read;
+            try {
+                read = inStream.read(chunk, 0, CHUNK_SIZE);
+            } catch (IOException ex) {
+                //probably the connection was closed, nothing to worry about
+                if (keepparsing)
+                    error = ex;
+                break;
+            }
+            if (read < 0) {
+                //end of stream
+                break;
+            }
+
+            counters.addBytesRead(read);
+            long now = System.nanoTime();
+
+            int pos = 0;
+            while (pos < read) {
+                pos += decoder.decode(chunk, pos, read - pos, packet);
+                if (packet.isFull()) {
+                    packet.setReceivedTime(now);
+                    onPacket();
+                }
+            }
+        }
+        //give back the packet being filled
+        if (packet.getFramesCounter() > 0)
+            counters.addPartialPacket();
+        packet.release();
+    }
+
+    /**
+     * Asks the parser to stop, it will exit after the current read returns
+     */
+    public void stop() {
+        keepparsing = false;
+    }
+
+    /**
+     * Tells why the parser stopped
+     * @return the exception thrown by the stream while parsing, or null
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Delivers the packet that has just been completed and takes a new one
+     */
+    private void onPacket() {
+        counters.addPacket();
+        // lend it to the listener
+        if (listener != null)
+            listener.handle(packet);
+        packet.release();
+        packet = pool.acquire();
+    }
+}
@@ -0,0 +1,167 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Low-pass filters and decimates the PPG, packet after packet.
+ * The filter is a windowed-sinc FIR whose cut-off is below the Nyquist frequency of the
+ * decimated signal, so that the waveform is not aliased. Only the samples that are kept
+ * are computed, and the history of the filter is carried across packets, so the output
+ * is the same as filtering the whole stream at once.
+ * No memory is allocated after construction: the output is written into an internal
+ * buffer that is overwritten by the next packet.
+ *
+ * @author Dario Salvi
+ */
+public class NoninPlethFilter {
+
+    /**
+     * Sampling frequency of the PPG, in Hz
+     */
+    public static final double SAMPLE_RATE = 75;
+
+    /**
+     * Cut-off of the low-pass filter, as a fraction of the Nyquist frequency of the decimated signal
+     */
+    private static final double CUTOFF = 0.8;
+
+    /**
+     * Number of taps of the filter for each unit of the decimation factor
+     */
+    private static final int TAPS_PER_FACTOR = 10;
+
+    private final int factor;
+    private final double[] taps;
+    /**
+     * Last input samples, written twice (at pos and pos + taps.length)
+     * so that the window of the filter is always contiguous
+     */
+    private final double[] history;
+    private int pos = 0;
+    /**
+     * Input samples received since the last output sample
+     */
+    private int phase = 0;
+    private boolean primed = false;
+
+    private final int[] output;
+    private int outputCount = 0;
+
+    /**
+     * Creates the filter
+     * @param factor one sample is kept every factor samples, 1 keeps all samples unfiltered
+     * @throws IllegalArgumentException if the factor is less than 1
+     */
+    public NoninPlethFilter(int factor) {
+        if (factor < 1)
+            throw new IllegalArgumentException("The decimation factor must be at least 1");
+        this.factor = factor;
+        taps = factor > 1 ? lowPass(TAPS_PER_FACTOR * factor + 1, CUTOFF / (2 * factor)) : new double[]{1};
+        history = new double[2 * taps.length];
+        output = new int[(NoninPacket.PACKETS_PER_FRAME + factor - 1) / factor];
+    }
+
+    /**
+     * Designs a low-pass filter with a Hamming window and unit gain at DC
+     * @param length number of taps, odd
+     * @param cutoff cut-off frequency, as a fraction of the sampling frequency
+     * @return the taps
+     */
+    private static double[] lowPass(int length, double cutoff) {
+        double[] h = new double[length];
+        int middle = length / 2;
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            int n = i - middle;
+            double sinc = n == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * n) / (Math.PI * n);
+            double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (length - 1));
+            h[i] = sinc * window;
+            sum += h[i];
+        }
+        for (int i = 0; i < length; i++)
+            h[i] /= sum;
+        return h;
+    }
+
+    /**
+     * Filters the PPG samples of a packet, packets must be given in the order they are received.
+     * The samples of missing frames are replaced by the previous sample.
+     * @param packet the packet
+     * @return the number of output samples, available with getSamples()
+     */
+    public int filter(NoninPacket packet) {
+        outputCount = 0;
+        int samples = packet.getPlethSampleCount();
+        int length = taps.length;
+        for (int i = 0; i < samples; i++) {
+            int sample = packet.getPlethSample(i);
+            if (sample == NoninPacket.INVALID_DATA) {
+                if (!primed)
+                    continue;
+                sample = (int) history[(pos + length - 1) % length];
+            }
+            if (!primed) {
+                // start from a flat signal instead of a step from 0
+                for (int j = 0; j < history.length; j++)
+                    history[j] = sample;
+                primed = true;
+            }
+            history[pos] = sample;
+            history[pos + length] = sample;
+            pos++;
+            if (pos == length)
+                pos = 0;
+            if (++phase < factor)
+                continue;
+            phase = 0;
+            // the window is history[pos .. pos + length - 1], oldest first
+            double y = 0;
+            for (int t = 0; t < length; t++)
+                y += taps[t] * history[pos + t];
+            int value = (int) Math.round(y);
+            // the samples are sent as uint16, 0xFFFF is a missing sample
+            output[outputCount++] = value < 0 ? 0 : Math.min(value, NoninPacketSerializer.MAX_PPG_SAMPLE);
+        }
+        return outputCount;
+    }
+
+    /**
+     * Gives the samples produced by the last call to filter(), the array is reused
+     * @return the buffer with the samples, only the first getSampleCount() are valid
+     */
+    public int[] getSamples() {
+        return output;
+    }
+
+    /**
+     * Number of samples produced by the last call to filter()
+     * @return the number of valid samples in getSamples()
+     */
+    public int getSampleCount() {
+        return outputCount;
+    }
+
+    /**
+     * Tells how many samples are merged into one
+     * @return the decimation factor
+     */
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * Delay introduced by the filter
+     * @return the delay, in input samples
+     */
+    public int getDelay() {
+        return taps.length / 2;
+    }
+
+    /**
+     * Forgets the history, for example when the stream has been interrupted
+     */
+    public void reset() {
+        pos = 0;
+        phase = 0;
+        primed = false;
+        outputCount = 0;
+    }
+}
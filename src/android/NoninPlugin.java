@@ -21,7 +21,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static android.Manifest.permission.ACCESS_COARSE_LOCATION;
 import static android.Manifest.permission.BLUETOOTH;
@@ -31,7 +33,10 @@ public class NoninPlugin extends CordovaPlugin {
 
     BluetoothAdapter adapter;
     private static final String LOG_NAME = NoninPlugin.class.getName();
-    private Nonin device;
+    // streaming sessions, by upper case address of the device
+    private final ConcurrentHashMap<String, NoninSession> sessions = new ConcurrentHashMap<String, NoninSession>();
+    // bonded devices, refreshed when a bond or the adapter change
+    private NoninDeviceRegistry registry;
     private CallbackContext callbackContext;
     private Activity activity;
     private final int PERMISSIONS_REQUEST = 142;
@@ -48,6 +53,8 @@ public class NoninPlugin extends CordovaPlugin {
         this.activity = cordova.getActivity();
         BluetoothManager bluetoothManager = (BluetoothManager) activity.getSystemService(Context.BLUETOOTH_SERVICE);
         adapter = bluetoothManager.getAdapter();
+        registry = new NoninDeviceRegistry(adapter);
+        registry.register(activity);
     }
 
     /* @Override */
@@ -111,13 +118,32 @@ public class NoninPlugin extends CordovaPlugin {
         } else if (action.equalsIgnoreCase("isPaired")) {
             try{
                 String addr = args.getString(0);
-                boolean r = Nonin.isBonded(adapter, addr);
+                boolean r = registry.isBonded(addr);
                 callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, r));
             } catch (Exception ex) {
                 Log.e(LOG_NAME, "Wrong address specified", ex);
                 callbackContext.error("You must specify a valid address");
             }
             return true;
+        } else if (action.equalsIgnoreCase("arePaired")) {
+            try {
+                JSONArray addresses = args.getJSONArray(0);
+                JSONArray r = new JSONArray();
+                for (int i = 0; i < addresses.length(); i++)
+                    r.put(registry.isBonded(addresses.getString(i)));
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, r));
+            } catch (Exception ex) {
+                Log.e(LOG_NAME, "Wrong addresses specified", ex);
+                callbackContext.error("You must specify an array of valid addresses");
+            }
+            return true;
+        } else if (action.equalsIgnoreCase("getPairedDevices")) {
+            try {
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, registry.toJSON()));
+            } catch (JSONException e) {
+                callbackContext.error(e.getMessage());
+            }
+            return true;
         } else if (action.equalsIgnoreCase("start")) {
             String addr;
             try{
@@ -127,65 +153,178 @@ public class NoninPlugin extends CordovaPlugin {
                 callbackContext.error("You must specify a valid address");
                 return true;
             }
-            device = new Nonin(adapter, addr, new Nonin.NoninHandler() {
+            NoninSession session;
+            try {
+                session = new NoninSession(adapter, addr, args.optJSONObject(1), callbackContext);
+            } catch (Exception ex) {
+                Log.e(LOG_NAME, "Wrong options specified", ex);
+                callbackContext.error("Wrong options: " + ex.getMessage());
+                return true;
+            }
+            // a new start on the same device replaces the previous session
+            final String address = addr;
+            final NoninSession started = session;
+            final boolean replay = args.optJSONObject(1) != null && args.optJSONObject(1).has("replay");
+            final NoninSession previous = sessions.put(key(addr), session);
+            // connecting blocks for seconds, not on the thread of the WebView
+            cordova.getThreadPool().execute(new Runnable() {
                 @Override
-                public void handle(final NoninPacket packet) {
-                    JSONObject r = new JSONObject();
-                    // data.spo2 -> blood saturation (avg over 4 pulses)
-                    // data.instantSpo2 -> instantaneous (non averaged) spo2
-                    // data.hr -> heart rate (avg over 4 pulses)
-                    // data.timestamp -> ms since 1970
-                    // data.timer -> internal device timer
-                    // data.hasArtifacts -> true if the signal has artifacts (low quality)
-                    // data.hasSustainedArtifacts -> true if the signal has sustained artifacts (even lower quality)
-                    // data.nofinger -> true if the finger was removed from the device
-                    // data.batterylow -> true if batteries are low
-                    // data.sensorAlarm -> true if data is unusable
-                    // data.smartPoint -> true if very precise measurement
-                    // data.PPG -> array of PPG samples
+                public void run() {
+                    if (previous != null)
+                        previous.stop();
                     try {
-                        r.put("spo2", packet.getSpO2Average());
-                        r.put("instantSpo2", packet.getBeatToBeatSpO2());
-                        r.put("hr", packet.getHRAverage());
-                        r.put("timestamp", System.currentTimeMillis());
-                        r.put("timer", packet.getTimer());
-                        r.put("hasArtifacts", packet.hasAnyArtifact());
-                        r.put("hasSustainedArtifacts", packet.hasAnyOutOfTrack());
-                        r.put("nofinger", packet.hasAnySensorAlarm());
-                        r.put("batterylow", packet.isBatteryLow());
-                        r.put("sensorAlarm", packet.hasAnySensorAlarm());
-                        r.put("smartPoint", packet.isSmartPointMeasurement());
-                        JSONArray ppgsamples = new JSONArray();
-                        for(int s : packet.getPlethSamples()) {
-                            ppgsamples.put(s);
-                        }
-                        r.put("PPG", ppgsamples);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
+                        started.start();
+                        if (!replay)
+                            registry.setLastFormat(address, started.getFormat());
+                    } catch (Exception ex) {
+                        // not only IOException: a malformed address throws IllegalArgumentException
+                        sessions.remove(key(address), started);
+                        Log.e(LOG_NAME, "Cannot connect to " + address, ex);
+                        callbackContext.error("Cannot connect to " + address);
                     }
-                    PluginResult result = new PluginResult(PluginResult.Status.OK, r);
-                    result.setKeepCallback(true);
-                    callbackContext.sendPluginResult(result);
                 }
             });
-
+            return true;
+        } else if (action.equalsIgnoreCase("stop")) {
+            String addr = args.optString(0, null);
+            if (addr == null || addr.length() == 0 || addr.equals("null")) {
+                // no address, stop everything as when only one device was supported
+                stopAll();
+            } else {
+                NoninSession session = sessions.remove(key(addr));
+                if (session != null)
+                    session.stop();
+            }
+            callbackContext.success();
+            return true;
+        } else if (action.equalsIgnoreCase("stopAll")) {
+            stopAll();
+            callbackContext.success();
+            return true;
+        } else if (action.equalsIgnoreCase("subscribe")) {
+            String addr = args.optString(0, null);
+            NoninSession session = addr == null ? null : sessions.get(key(addr));
+            if (session == null) {
+                callbackContext.error("No session with " + addr);
+                return true;
+            }
+            int id = args.optInt(1, 0);
+            if (id <= 0) {
+                callbackContext.error("You must specify a positive subscription id");
+                return true;
+            }
+            NoninSubscriber subscriber;
             try {
-                device.start();
-            } catch (IOException ex) {
-                Log.e(LOG_NAME, "Cannot connect to "+addr, ex);
-                callbackContext.error("Cannot connect to "+addr);
+                subscriber = new NoninSubscriber(id, args.optJSONObject(2), callbackContext);
+            } catch (Exception ex) {
+                Log.e(LOG_NAME, "Wrong options specified", ex);
+                callbackContext.error("Wrong options: " + ex.getMessage());
                 return true;
             }
+            if (!session.subscribe(subscriber))
+                callbackContext.error("No session with " + addr);
             return true;
-        } else if (action.equalsIgnoreCase("stop")) {
-            if(device != null){
-                device.stop();
-            }
+        } else if (action.equalsIgnoreCase("unsubscribe")) {
+            String addr = args.optString(0, null);
+            NoninSession session = addr == null ? null : sessions.get(key(addr));
+            if (session != null)
+                session.unsubscribe(args.optInt(1, 0));
             callbackContext.success();
             return true;
+        } else if (action.equalsIgnoreCase("startRecording")) {
+            String addr = args.optString(0, null);
+            NoninSession session = addr == null ? null : sessions.get(key(addr));
+            if (session == null) {
+                callbackContext.error("No session with " + addr);
+                return true;
+            }
+            JSONObject options = args.optJSONObject(1);
+            String dir = options != null ? options.optString("directory", null) : null;
+            File directory = dir != null ? new File(dir) : new File(activity.getFilesDir(), "nonin");
+            try {
+                File file = session.startRecording(directory, options);
+                callbackContext.success(file.getAbsolutePath());
+            } catch (IOException ex) {
+                Log.e(LOG_NAME, "Cannot record " + addr, ex);
+                callbackContext.error("Cannot record: " + ex.getMessage());
+            } catch (IllegalArgumentException ex) {
+                callbackContext.error("Wrong options: " + ex.getMessage());
+            }
+            return true;
+        } else if (action.equalsIgnoreCase("stopRecording")) {
+            String addr = args.optString(0, null);
+            NoninSession session = addr == null ? null : sessions.get(key(addr));
+            JSONArray files = new JSONArray();
+            if (session != null) {
+                for (File file : session.stopRecording())
+                    files.put(file.getAbsolutePath());
+            }
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, files));
+            return true;
+        } else if (action.equalsIgnoreCase("getStats")) {
+            String addr = args.optString(0, null);
+            try {
+                if (addr == null || addr.length() == 0 || addr.equals("null")) {
+                    JSONArray list = new JSONArray();
+                    for (NoninSession session : sessions.values())
+                        list.put(session.getStats());
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, list));
+                } else {
+                    NoninSession session = sessions.get(key(addr));
+                    if (session == null) {
+                        callbackContext.error("No session with " + addr);
+                        return true;
+                    }
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, session.getStats()));
+                }
+            } catch (JSONException e) {
+                callbackContext.error(e.getMessage());
+            }
+            return true;
+        } else if (action.equalsIgnoreCase("getSessions")) {
+            JSONArray list = new JSONArray();
+            try {
+                for (NoninSession session : sessions.values())
+                    list.put(session.toJSON());
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, list));
+            return true;
         } else {
             // Unsupported action
             return false;
         }
     }
+
+    /**
+     * Stops all sessions when the app is closed
+     */
+    @Override
+    public void onDestroy() {
+        stopAll();
+        registry.unregister(activity);
+        super.onDestroy();
+    }
+
+    /**
+     * Stops all the sessions
+     */
+    private void stopAll() {
+        for (String addr : sessions.keySet()) {
+            NoninSession session = sessions.remove(addr);
+            if (session != null)
+                session.stop();
+        }
+    }
+
+    /**
+     * Normalises an address so that it can be used as key of the sessions
+     *
+     * @param address a bluetooth address
+     * @return the address in upper case
+     */
+    private static String key(String address) {
+        return NoninDeviceRegistry.normalise(address);
+    }
 }
@@ -0,0 +1,315 @@
+package org.apache.cordova.nonin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends the raw frames of the packets to files, so that a session survives the reload or
+ * the crash of the WebView. Each file has a header followed by one record per packet:
+ * file header: 4 bytes MAGIC, uint8 VERSION, 3 bytes reserved
+ * record: int64 timestamp (ms since 1970), uint8 flags (FLAG_TREND), uint8 number of frames (n),
+ * then n frames of 5 bytes as in data format 7 (status, PPG MSB, PPG LSB, extra, checksum)
+ * Compressed files have version VERSION_COMPRESSED and records made of int64 timestamp, uint8 flags,
+ * uint8 length of the packet encoded by NoninPacketCodec, then the encoded packet.
+ * Each file is encoded on its own. All numbers are big endian.
+ * Records are collected in a buffer and written to the file when the buffer is full or
+ * every flushInterval ms, so that a crash of the app loses at most flushInterval ms of data.
+ * Every syncInterval ms the file is also forced to the storage, so that data survives a power loss.
+ * The intervals are also checked by a timer, so the bounds hold when the records stop arriving.
+ * When a file would exceed maxFileSize a new one is started, named name.index.nonin.
+ * The methods are synchronized, the recorder can be stopped from any thread.
+ *
+ * @author Dario Salvi
+ */
+public class NoninRecorder implements Closeable {
+
+    public static final byte[] MAGIC = {'N', 'N', 'R', 'C'};
+    public static final int VERSION = 1;
+    public static final int VERSION_COMPRESSED = 2;
+    public static final int FILE_HEADER_SIZE = 8;
+    public static final int RECORD_HEADER_SIZE = 10;
+    public static final String EXTENSION = ".nonin";
+
+    /**
+     * Flag of records holding a trend packet (data formats 8 and 13), see NoninPacket.isTrend()
+     */
+    public static final int FLAG_TREND = 0x01;
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 16 * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final long DEFAULT_SYNC_INTERVAL = 10000;
+
+    /**
+     * Size of the buffer, about one minute of format 7 packets
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Checks the intervals of all the recorders, on a daemon thread that ends when no recorder is open
+     */
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Nonin recorder timer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static {
+        timer.setKeepAliveTime(10, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private final File directory;
+    private final String name;
+    private final long maxFileSize;
+    private final long flushInterval;
+    private final long syncInterval;
+    private final NoninPacketCodec.Encoder encoder;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] frames = new byte[Math.max(NoninPacket.RAW_SIZE, NoninPacketCodec.MAX_ENCODED_SIZE)];
+    private final List<File> files = new ArrayList<File>();
+
+    private FileChannel channel;
+    private long fileSize;
+    private long lastFlush;
+    private long lastSync;
+    private long records = 0;
+    private long bytes = 0;
+
+    //System.currentTimeMillis() of the last write and of the last force, for the timer
+    private long lastWriteTime;
+    private long lastForceTime;
+    //bytes written since the last force
+    private boolean unsynced = false;
+    //checks the intervals when no record arrives, null if every record is written and forced
+    private final ScheduledFuture<?> tick;
+    //error of the timer, thrown by the next record()
+    private IOException tickError = null;
+
+    /**
+     * Creates the recorder with the default policies and opens the first file
+     * @param directory where the files are written, created if missing
+     * @param name the beginning of the name of the files
+     * @throws IOException if the file cannot be created
+     */
+    public NoninRecorder(File directory, String name) throws IOException {
+        this(directory, name, DEFAULT_MAX_FILE_SIZE, DEFAULT_FLUSH_INTERVAL, DEFAULT_SYNC_INTERVAL);
+    }
+
+    /**
+     * Creates the recorder and opens the first file
+     * @param directory where the files are written, created if missing
+     * @param name the beginning of the name of the files
+     * @param maxFileSize a new file is started when this size in bytes would be exceeded
+     * @param flushInterval ms after which the buffered records are written to the file, 0 to write each record
+     * @param syncInterval ms after which the file is forced to the storage, 0 to force each write, negative never
+     * @throws IOException if the file cannot be created
+     * @throws IllegalArgumentException if maxFileSize cannot fit a packet
+     */
+    public NoninRecorder(File directory, String name, long maxFileSize, long flushInterval, long syncInterval) throws IOException {
+        this(directory, name, maxFileSize, flushInterval, syncInterval, false);
+    }
+
+    /**
+     * Creates the recorder and opens the first file
+     * @param directory where the files are written, created if missing
+     * @param name the beginning of the name of the files
+     * @param maxFileSize a new file is started when this size in bytes would be exceeded
+     * @param flushInterval ms after which the buffered records are written to the file, 0 to write each record
+     * @param syncInterval ms after which the file is forced to the storage, 0 to force each write, negative never
+     * @param compress if true the packets are encoded with NoninPacketCodec
+     * @throws IOException if the file cannot be created
+     * @throws IllegalArgumentException if maxFileSize cannot fit a packet
+     */
+    public NoninRecorder(File directory, String name, long maxFileSize, long flushInterval, long syncInterval,
+                         boolean compress) throws IOException {
+        if (maxFileSize < FILE_HEADER_SIZE + RECORD_HEADER_SIZE + NoninPacketCodec.MAX_ENCODED_SIZE)
+            throw new IllegalArgumentException("The maximum file size is too small");
+        this.directory = directory;
+        this.name = name;
+        this.maxFileSize = maxFileSize;
+        this.flushInterval = flushInterval;
+        this.syncInterval = syncInterval;
+        this.encoder = compress ? new NoninPacketCodec.Encoder() : null;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+        openNext();
+        lastWriteTime = lastForceTime = System.currentTimeMillis();
+        long period = flushInterval > 0 ? flushInterval : 0;
+        if (syncInterval > 0 && (period == 0 || syncInterval < period))
+            period = syncInterval;
+        tick = period > 0 ? timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, period, period, TimeUnit.MILLISECONDS) : null;
+    }
+
+    /**
+     * Appends a packet, the packet is not kept
+     * @param packet the packet
+     * @param timestamp ms since 1970 when the packet was received
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void record(NoninPacket packet, long timestamp) throws IOException {
+        if (channel == null)
+            throw new IOException("The recorder is closed");
+        if (tickError != null)
+            throw tickError;
+        // the worst case is used for rotation, so that the encoder state is reset before encoding
+        int size = RECORD_HEADER_SIZE + (encoder != null ? NoninPacketCodec.MAX_ENCODED_SIZE : packet.getFramesCounter() * NoninFrameSync.FRAME_SIZE);
+        if (fileSize + buffer.position() + size > maxFileSize) {
+            write(true);
+            channel.close();
+            openNext();
+        }
+        if (buffer.remaining() < size)
+            write(false);
+        int length = encoder != null ? encoder.encode(packet, frames, 0) : packet.getRawBytes(frames, 0);
+        buffer.putLong(timestamp);
+        buffer.put((byte) (packet.isTrend() ? FLAG_TREND : 0));
+        buffer.put((byte) (encoder != null ? length : packet.getFramesCounter()));
+        buffer.put(frames, 0, length);
+        if (records++ == 0) {
+            // the intervals are counted from the first record
+            lastFlush = lastSync = timestamp;
+        }
+
+        if (timestamp - lastFlush >= flushInterval) {
+            boolean sync = syncInterval >= 0 && timestamp - lastSync >= syncInterval;
+            write(sync);
+            lastFlush = timestamp;
+            if (sync)
+                lastSync = timestamp;
+        }
+    }
+
+    /**
+     * Writes the records that have waited flushInterval ms and forces the file if not forced for syncInterval ms,
+     * called by the timer so that the intervals hold when no record arrives
+     */
+    synchronized void tick() {
+        if (channel == null || tickError != null)
+            return;
+        long now = System.currentTimeMillis();
+        boolean flush = buffer.position() > 0 && now - lastWriteTime >= flushInterval;
+        boolean sync = syncInterval >= 0 && (unsynced || flush) && now - lastForceTime >= syncInterval;
+        if (!flush && !sync)
+            return;
+        try {
+            write(sync);
+        } catch (IOException e) {
+            tickError = e;
+        }
+    }
+
+    /**
+     * Writes the buffered records to the file and forces it to the storage
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        if (channel != null)
+            write(true);
+    }
+
+    /**
+     * Writes the buffered records and closes the file, does nothing if already closed
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null)
+            return;
+        if (tick != null)
+            tick.cancel(false);
+        try {
+            write(true);
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Tells if the recorder is still open
+     * @return true until close() is called
+     */
+    public synchronized boolean isOpen() {
+        return channel != null;
+    }
+
+    /**
+     * Lists the files written so far, the last one is the current file
+     * @return a copy of the list of the files
+     */
+    public synchronized List<File> getFiles() {
+        return new ArrayList<File>(files);
+    }
+
+    /**
+     * Number of packets recorded
+     * @return the number of records
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Bytes written to the files, buffered records excluded
+     * @return the number of bytes
+     */
+    public synchronized long getBytesWritten() {
+        return bytes;
+    }
+
+    private void openNext() throws IOException {
+        File file = new File(directory, name + "." + (files.size() + 1) + EXTENSION);
+        channel = new FileOutputStream(file, true).getChannel();
+        files.add(file);
+        fileSize = channel.size();
+        if (encoder != null)
+            encoder.reset();
+        if (fileSize == 0) {
+            buffer.put(MAGIC);
+            buffer.put((byte) (encoder != null ? VERSION_COMPRESSED : VERSION));
+            buffer.put(new byte[FILE_HEADER_SIZE - MAGIC.length - 1]);
+        }
+    }
+
+    /**
+     * Writes the buffer to the channel
+     * @param sync if true the file is also forced to the storage
+     */
+    private void write(boolean sync) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            int written = channel.write(buffer);
+            fileSize += written;
+            bytes += written;
+        }
+        buffer.clear();
+        lastWriteTime = System.currentTimeMillis();
+        if (sync) {
+            channel.force(false);
+            lastForceTime = lastWriteTime;
+            unsynced = false;
+        } else {
+            unsynced = true;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package org.apache.cordova.nonin;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Transport that replays the files written by NoninRecorder, so that a recorded session goes
+ * through the same parser, packets and handler as a live one.
+ * The records are replayed either with their original timing, optionally accelerated, or as fast
+ * as they are read. With the original timing the frames of a record are released one by one at 75 Hz,
+ * as sent by the device, the last one at the time of the record; the trend records at their time. Recordings of the trend formats (D8, D13) are replayed as D13 records,
+ * the others as D7 frames, getFormat() tells which one must be decoded.
+ * The commands sent to the device are discarded.
+ *
+ * @author Dario Salvi
+ */
+public class NoninRecordingTransport implements NoninTransport {
+
+    /**
+     * Speed that replays the records as fast as possible
+     */
+    public static final double MAX_SPEED = 0;
+
+    /**
+     * Speed that replays the records with the timing they were received
+     */
+    public static final double REAL_TIME = 1;
+
+    /**
+     * Time between two frames of the D7 format, sent at 75 Hz
+     */
+    private static final long FRAME_NANOS = 1000000000L / 75;
+
+    private final List<File> files;
+    private final double speed;
+    private final NoninFormat format;
+    private RecordingInputStream inStream = null;
+    private OutputStream outStream = null;
+
+    /**
+     * Replays a recording
+     *
+     * @param files the files of the recording, in order
+     * @param speed REAL_TIME, MAX_SPEED or how many times faster than real time
+     * @throws IOException if the first file cannot be read or is not a recording
+     */
+    public NoninRecordingTransport(List<File> files, double speed) throws IOException {
+        if (files.isEmpty())
+            throw new IllegalArgumentException("No files to replay");
+        if (speed < 0)
+            throw new IllegalArgumentException("The speed cannot be negative");
+        this.files = new ArrayList<File>(files);
+        this.speed = speed;
+        this.format = readFormat(files.get(0));
+    }
+
+    /**
+     * Replays a recording made of one file
+     *
+     * @param file  the file of the recording
+     * @param speed REAL_TIME, MAX_SPEED or how many times faster than real time
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public NoninRecordingTransport(File file, double speed) throws IOException {
+        this(Arrays.asList(file), speed);
+    }
+
+    /**
+     * Tells the data format of the replayed stream, to be set on the parser
+     * @return D13 for recordings of trend packets, D7 otherwise
+     */
+    public NoninFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public void open() throws IOException {
+        inStream = new RecordingInputStream(files, speed, format == NoninFormat.D13);
+        outStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                //commands are ignored
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outStream;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inStream != null)
+            inStream.close();
+    }
+
+    @Override
+    public void setAborted(boolean aborted) {
+        //opening never blocks
+    }
+
+    @Override
+    public String toString() {
+        return "Recording " + files.get(0).getPath();
+    }
+
+    /**
+     * Opens a file of a recording and reads its header
+     */
+    private static DataInputStream openFile(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        readHeader(in, file);
+        return in;
+    }
+
+    /**
+     * Reads and checks the header of a file, closes the stream if the header is not valid
+     * @return the version of the file
+     */
+    private static int readHeader(DataInputStream in, File file) throws IOException {
+        byte[] header = new byte[NoninRecorder.FILE_HEADER_SIZE];
+        try {
+            in.readFully(header);
+        } catch (EOFException e) {
+            in.close();
+            throw new IOException(file + " is not a Nonin recording");
+        }
+        for (int i = 0; i < NoninRecorder.MAGIC.length; i++) {
+            if (header[i] != NoninRecorder.MAGIC[i]) {
+                in.close();
+                throw new IOException(file + " is not a Nonin recording");
+            }
+        }
+        int version = header[NoninRecorder.MAGIC.length];
+        if (version != NoninRecorder.VERSION && version != NoninRecorder.VERSION_COMPRESSED) {
+            in.close();
+            throw new IOException(file + " has an unsupported version");
+        }
+        return version;
+    }
+
+    private static NoninFormat readFormat(File file) throws IOException {
+        DataInputStream in = openFile(file);
+        try {
+            in.readLong();
+            return (in.readUnsignedByte() & NoninRecorder.FLAG_TREND) != 0 ? NoninFormat.D13 : NoninFormat.D7;
+        } catch (EOFException e) {
+            // empty recording
+            return NoninFormat.D7;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Gives the bytes of the records one after the other, waiting for the time of each frame,
+     * or of each record for the trend formats
+     */
+    private static class RecordingInputStream extends InputStream {
+
+        private final List<File> files;
+        private final double speed;
+        private final boolean trend;
+        private int nextFile = 0;
+        private volatile DataInputStream in = null;
+        private boolean compressed;
+        private final NoninPacketCodec.Decoder decoder = new NoninPacketCodec.Decoder();
+        private final NoninPacket decoded = new NoninPacket();
+        private final byte[] encoded = new byte[NoninPacketCodec.MAX_ENCODED_SIZE];
+
+        private final byte[] frames = new byte[NoninPacket.RAW_SIZE];
+        private final byte[] record = new byte[NoninPacket.RAW_SIZE];
+        private int recordLength = 0;
+        private int position = 0;
+        //System.nanoTime() when the last frame of the current record is due
+        private long recordNanos;
+
+        private boolean started = false;
+        private long firstTimestamp;
+        private long startNanos;
+        private volatile boolean closed = false;
+
+        RecordingInputStream(List<File> files, double speed, boolean trend) {
+            this.files = files;
+            this.speed = speed;
+            this.trend = trend;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            while (position == recordLength) {
+                if (closed || !nextRecord())
+                    return -1;
+            }
+            int n = Math.min(len, recordLength - position);
+            if (speed > 0 && !trend) {
+                // one frame at a time, at its time
+                int frame = position / NoninFrameSync.FRAME_SIZE;
+                if (position % NoninFrameSync.FRAME_SIZE == 0)
+                    waitUntil(frameNanos(frame));
+                n = Math.min(n, (frame + 1) * NoninFrameSync.FRAME_SIZE - position);
+            }
+            System.arraycopy(record, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        /**
+         * When a frame of the current record is due, the frames before the last one are 1/75 s apart
+         * @param frame index of the frame in the record
+         * @return System.nanoTime() when the frame is due
+         */
+        private long frameNanos(int frame) {
+            int frameCount = recordLength / NoninFrameSync.FRAME_SIZE;
+            return recordNanos - (long) ((frameCount - 1 - frame) * FRAME_NANOS / speed);
+        }
+
+        /**
+         * Loads the next record, and for the trend formats waits for its time
+         * @return false at the end of the recording
+         */
+        private boolean nextRecord() throws IOException {
+            long timestamp;
+            int frameCount;
+            while (true) {
+                if (in == null) {
+                    if (nextFile == files.size())
+                        return false;
+                    File file = files.get(nextFile++);
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                    compressed = readHeader(in, file) == NoninRecorder.VERSION_COMPRESSED;
+                    // each file is encoded on its own
+                    decoder.reset();
+                    if (closed) {
+                        // closed while opening
+                        in.close();
+                        return false;
+                    }
+                }
+                try {
+                    timestamp = in.readLong();
+                    in.readUnsignedByte();
+                    if (compressed) {
+                        int length = in.readUnsignedByte();
+                        in.readFully(encoded, 0, length);
+                        try {
+                            decoder.decode(encoded, 0, decoded);
+                        } catch (RuntimeException e) {
+                            throw new IOException("Corrupted recording", e);
+                        }
+                        frameCount = decoded.getFramesCounter();
+                        decoded.getRawBytes(frames, 0);
+                        break;
+                    }
+                    frameCount = in.readUnsignedByte();
+                    if (frameCount > NoninPacket.PACKETS_PER_FRAME)
+                        throw new IOException("Corrupted recording, record with " + frameCount + " frames");
+                    in.readFully(frames, 0, frameCount * NoninFrameSync.FRAME_SIZE);
+                    break;
+                } catch (EOFException e) {
+                    // end of this file, or record truncated by a crash
+                    in.close();
+                    in = null;
+                }
+            }
+
+            position = 0;
+            if (trend) {
+                recordLength = toTrendRecord(frames, frameCount, record);
+            } else {
+                recordLength = frameCount * NoninFrameSync.FRAME_SIZE;
+                System.arraycopy(frames, 0, record, 0, recordLength);
+            }
+
+            if (!started) {
+                started = true;
+                firstTimestamp = timestamp;
+                startNanos = System.nanoTime();
+                // the first frame of the first record is due now
+                if (speed > 0 && !trend && frameCount > 0)
+                    startNanos += (long) ((frameCount - 1) * FRAME_NANOS / speed);
+            }
+            if (speed > 0) {
+                recordNanos = startNanos + (long) ((timestamp - firstTimestamp) * 1000000 / speed);
+                if (trend)
+                    waitUntil(recordNanos);
+            }
+            return true;
+        }
+
+        /**
+         * Builds a D13 record from the frames of a trend packet
+         * @return the length of the record
+         */
+        private static int toTrendRecord(byte[] frames, int frameCount, byte[] record) {
+            if (frameCount < NoninPacket.PACKETS_PER_FRAME)
+                return 0;
+            int status = frames[NoninFrameSync.FRAME_SIZE] & 0xFF;
+            record[0] = (byte) status;
+            record[1] = extra(frames, NoninPacket.FrameLocation.HR_MSB);
+            record[2] = extra(frames, NoninPacket.FrameLocation.HR_LSB);
+            record[3] = extra(frames, NoninPacket.FrameLocation.SPO2);
+            record[4] = extra(frames, NoninPacket.FrameLocation.STAT2);
+            record[5] = (byte) (status + record[1] + record[2] + record[3] + record[4]);
+            return 6;
+        }
+
+        private static byte extra(byte[] frames, int index) {
+            return frames[index * NoninFrameSync.FRAME_SIZE + 3];
+        }
+
+        private synchronized void waitUntil(long nanos) {
+            long left;
+            while (!closed && (left = nanos - System.nanoTime()) > 0) {
+                try {
+                    wait(left / 1000000, (int) (left % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            synchronized (this) {
+                notifyAll();
+            }
+            // a read in progress fails, as with a socket
+            DataInputStream current = in;
+            if (current != null)
+                current.close();
+        }
+    }
+}
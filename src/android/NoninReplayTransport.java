@@ -0,0 +1,140 @@
+package org.apache.cordova.nonin;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Transport that replays raw bytes, from a file or from memory, as fast as they are read.
+ * The commands sent to the device are discarded, the data format is the one of the replayed bytes.
+ *
+ * @author Dario Salvi
+ */
+public class NoninReplayTransport implements NoninTransport {
+
+    private final File file;
+    private final byte[] data;
+    private final int repetitions;
+    private InputStream inStream = null;
+    private OutputStream outStream = null;
+
+    /**
+     * Replays the content of a file, once
+     *
+     * @param file the file with the raw bytes sent by a device
+     */
+    public NoninReplayTransport(File file) {
+        this.file = file;
+        this.data = null;
+        this.repetitions = 1;
+    }
+
+    /**
+     * Replays an array of bytes a number of times
+     *
+     * @param data        the raw bytes sent by a device
+     * @param repetitions how many times the data is repeated, 0 repeats forever
+     */
+    public NoninReplayTransport(byte[] data, int repetitions) {
+        this.file = null;
+        this.data = data;
+        this.repetitions = repetitions;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (file != null)
+            inStream = new BufferedInputStream(new FileInputStream(file));
+        else
+            inStream = new RepeatingInputStream(data, repetitions);
+        outStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                //commands are ignored
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outStream;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inStream != null)
+            inStream.close();
+    }
+
+    @Override
+    public void setAborted(boolean aborted) {
+        //opening never blocks
+    }
+
+    @Override
+    public String toString() {
+        return "Replay " + (file != null ? file.getPath() : data.length + " bytes");
+    }
+
+    /**
+     * Input stream going through the same array again and again, without copying it
+     */
+    private static class RepeatingInputStream extends InputStream {
+
+        private final byte[] data;
+        private final int repetitions;
+        private int repetition = 0;
+        private int position = 0;
+        private volatile boolean closed = false;
+
+        RepeatingInputStream(byte[] data, int repetitions) {
+            this.data = data;
+            this.repetitions = repetitions;
+        }
+
+        private boolean ended() {
+            return closed || data.length == 0 || (repetitions > 0 && repetition >= repetitions);
+        }
+
+        @Override
+        public int read() {
+            if (ended())
+                return -1;
+            int b = data[position++] & 0xFF;
+            if (position == data.length) {
+                position = 0;
+                repetition++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (ended())
+                return -1;
+            int n = Math.min(len, data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            if (position == data.length) {
+                position = 0;
+                repetition++;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package org.apache.cordova.nonin;
+
+import android.bluetooth.BluetoothAdapter;
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Streaming session with one device, sends its data to the callback given to start
+ * and to the other subscribers, each one according to its own delivery options.
+ *
+ * @author Dario Salvi
+ */
+public class NoninSession implements Nonin.NoninHandler {
+
+    private static final String LOG_NAME = NoninSession.class.getName();
+
+    private final String address;
+    private final Nonin device;
+    // the callback given to start and those added with subscribe, each one with its own thread
+    private final List<NoninSubscriber> subscribers = new CopyOnWriteArrayList<NoninSubscriber>();
+    // set by stop(), guarded by subscribers
+    private boolean stopped = false;
+    // raw frames written to files, null if not recording
+    private NoninRecorder recorder;
+
+    /**
+     * Creates the session, the device is connected in start()
+     *
+     * @param adapter the bluetooth adapter
+     * @param address the address of the device
+     * @param options the delivery options given to start, can be null
+     * @param callbackContext where the data is sent, the first subscriber
+     * @throws JSONException if the options are malformed
+     * @throws IllegalArgumentException if the options have wrong values
+     * @throws IOException if the recording to be replayed cannot be read
+     */
+    public NoninSession(BluetoothAdapter adapter, String address, JSONObject options, CallbackContext callbackContext) throws JSONException, IOException {
+        if (options == null)
+            options = new JSONObject();
+        this.address = address;
+        subscribers.add(new NoninSubscriber(0, options, callbackContext));
+        if (options.has("replay")) {
+            // options.replay -> the data comes from a recording instead of the device
+            NoninRecordingTransport recording = new NoninRecordingTransport(replayFiles(options.get("replay")),
+                    options.optDouble("replaySpeed", NoninRecordingTransport.REAL_TIME));
+            device = new Nonin(recording, this);
+            device.setFormat(recording.getFormat());
+            // nothing is lost if the handler is slower than the replay
+            device.setLossless(true);
+        } else {
+            device = new Nonin(adapter, address, this);
+            device.setFormat(NoninFormat.fromName(options.optString("format", null)));
+            // options.reconnect -> the link is opened again when lost, unless false
+            device.setReconnect(backoff(options.opt("reconnect")));
+        }
+    }
+
+    /**
+     * Builds the backoff of options.reconnect
+     * @param reconnect absent or true for the defaults, false for none, or an object with initialDelay, maxDelay (ms) and maxAttempts
+     * @return the backoff, null if not reconnecting
+     */
+    private static NoninBackoff backoff(Object reconnect) {
+        if (Boolean.FALSE.equals(reconnect))
+            return null;
+        if (!(reconnect instanceof JSONObject))
+            return new NoninBackoff();
+        JSONObject r = (JSONObject) reconnect;
+        return new NoninBackoff(r.optLong("initialDelay", NoninBackoff.DEFAULT_INITIAL_DELAY),
+                r.optLong("maxDelay", NoninBackoff.DEFAULT_MAX_DELAY),
+                r.optInt("maxAttempts", 0));
+    }
+
+    /**
+     * Lists the files given in options.replay
+     * @param replay a path or an array of paths
+     */
+    private static List<File> replayFiles(Object replay) throws JSONException {
+        List<File> files = new ArrayList<File>();
+        if (replay instanceof JSONArray) {
+            JSONArray paths = (JSONArray) replay;
+            for (int i = 0; i < paths.length(); i++)
+                files.add(new File(paths.getString(i)));
+        } else {
+            files.add(new File(replay.toString()));
+        }
+        return files;
+    }
+
+    /**
+     * Connects to the device and starts streaming, does nothing if the session has been stopped
+     * @throws IOException if the device cannot be connected
+     */
+    public void start() throws IOException {
+        Log.i(LOG_NAME, "Starting session with " + address);
+        synchronized (subscribers) {
+            if (stopped)
+                return;
+            for (NoninSubscriber s : subscribers)
+                s.start(threadName(s.getId()));
+        }
+        boolean started = false;
+        try {
+            device.start();
+            started = true;
+        } finally {
+            if (!started)
+                stopSubscribers();
+        }
+        synchronized (subscribers) {
+            if (!stopped)
+                return;
+        }
+        // stopped before the device was started, stop() could not stop it
+        device.stop();
+    }
+
+    /**
+     * Stops streaming, the data still in the batches of the subscribers is sent
+     */
+    public void stop() {
+        Log.i(LOG_NAME, "Stopping session with " + address);
+        synchronized (subscribers) {
+            stopped = true;
+        }
+        device.stop();
+        stopSubscribers();
+        stopRecording();
+    }
+
+    private void stopSubscribers() {
+        synchronized (subscribers) {
+            stopped = true;
+            for (NoninSubscriber s : subscribers)
+                s.stop();
+        }
+    }
+
+    /**
+     * Adds a subscriber to the running session, replaces the one with the same id if any
+     * @param subscriber the subscriber, started here
+     * @return false if the session has been stopped
+     */
+    public boolean subscribe(NoninSubscriber subscriber) {
+        synchronized (subscribers) {
+            if (stopped)
+                return false;
+            subscriber.start(threadName(subscriber.getId()));
+            NoninSubscriber old = find(subscriber.getId());
+            // added before the old one is removed, so the id is never missing
+            subscribers.add(subscriber);
+            if (old != null) {
+                subscribers.remove(old);
+                old.stop();
+            }
+        }
+        Log.i(LOG_NAME, "Subscriber " + subscriber.getId() + " added to " + address);
+        return true;
+    }
+
+    /**
+     * Removes a subscriber, the data still in its batch is sent
+     * @param id the id of the subscriber
+     * @return false if there is no subscriber with that id
+     */
+    public boolean unsubscribe(int id) {
+        NoninSubscriber s;
+        synchronized (subscribers) {
+            s = find(id);
+            if (s == null || !subscribers.remove(s))
+                return false;
+            s.stop();
+        }
+        Log.i(LOG_NAME, "Subscriber " + id + " removed from " + address);
+        return true;
+    }
+
+    private NoninSubscriber find(int id) {
+        for (NoninSubscriber s : subscribers) {
+            if (s.getId() == id)
+                return s;
+        }
+        return null;
+    }
+
+    private String threadName(int id) {
+        return "Nonin subscriber " + address + " " + id;
+    }
+
+    /**
+     * Starts writing the raw frames received to files, replaces any ongoing recording
+     * @param directory where the files are written
+     * @param options maxFileSize (bytes), flushInterval and syncInterval (ms), compress, can be null
+     * @return the first file of the recording
+     * @throws IOException if the file cannot be created
+     */
+    public File startRecording(File directory, JSONObject options) throws IOException {
+        if (options == null)
+            options = new JSONObject();
+        String name = address.replace(":", "") + "-" + System.currentTimeMillis();
+        NoninRecorder r = new NoninRecorder(directory, name,
+                options.optLong("maxFileSize", NoninRecorder.DEFAULT_MAX_FILE_SIZE),
+                options.optLong("flushInterval", NoninRecorder.DEFAULT_FLUSH_INTERVAL),
+                options.optLong("syncInterval", NoninRecorder.DEFAULT_SYNC_INTERVAL),
+                options.optBoolean("compress", false));
+        stopRecording();
+        synchronized (this) {
+            recorder = r;
+        }
+        Log.i(LOG_NAME, "Recording " + address + " to " + r.getFiles().get(0));
+        return r.getFiles().get(0);
+    }
+
+    /**
+     * Stops the recording, if any, and closes its file
+     * @return the files of the recording, empty if not recording
+     */
+    public synchronized List<File> stopRecording() {
+        if (recorder == null)
+            return new ArrayList<File>();
+        List<File> files = recorder.getFiles();
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Log.e(LOG_NAME, "Cannot close the recording of " + address, e);
+        }
+        recorder = null;
+        return files;
+    }
+
+    /**
+     * Data format requested to the device, or read from the recording being replayed
+     * @return the format
+     */
+    public NoninFormat getFormat() {
+        return device.getFormat();
+    }
+
+    /**
+     * Address of the device
+     * @return the address
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Describes the session
+     * @return address and state of the session
+     * @throws JSONException if the object cannot be built
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put("address", address);
+        r.put("active", device.isActive());
+        r.put("state", device.getState().name().toLowerCase(Locale.US));
+        synchronized (this) {
+            r.put("recording", recorder != null);
+        }
+        return r;
+    }
+
+    /**
+     * Describes what the parser, the dispatcher and the subscribers have done since the session was created
+     * @return the counters, the state of the queue, the latency from the reading of a packet
+     * to its delivery to the callback given to start, the state of each subscriber and the last error of the stream
+     * @throws JSONException if the object cannot be built
+     */
+    public JSONObject getStats() throws JSONException {
+        JSONObject r = device.getCounters().toJSON();
+        r.put("address", address);
+        NoninDispatcher dispatcher = device.getDispatcher();
+        if (dispatcher != null) {
+            r.put("queueDepth", dispatcher.getQueueDepth());
+            r.put("maxQueueDepth", dispatcher.getMaxQueueDepth());
+            r.put("queueCapacity", dispatcher.getQueueCapacity());
+        }
+        JSONArray subs = new JSONArray();
+        for (NoninSubscriber s : subscribers) {
+            if (s.getId() == 0)
+                r.put("latency", s.getLatency().toJSON());
+            subs.put(s.toJSON());
+        }
+        r.put("subscribers", subs);
+        IOException error = device.getError();
+        if (error != null)
+            r.put("error", error.toString());
+        return r;
+    }
+
+    @Override
+    public synchronized void handle(NoninPacket packet) {
+        long now = System.currentTimeMillis();
+        if (packet.getReceivedTime() != 0) {
+            // the time of the reading, so that the delay of the queue is not recorded
+            now -= (System.nanoTime() - packet.getReceivedTime()) / 1000000;
+        }
+        if (recorder != null) {
+            try {
+                recorder.record(packet, now);
+            } catch (IOException e) {
+                Log.e(LOG_NAME, "Recording of " + address + " failed, stopping it", e);
+                stopRecording();
+            }
+        }
+        for (NoninSubscriber s : subscribers)
+            s.offer(packet, now);
+    }
+}
@@ -0,0 +1,70 @@
+package org.apache.cordova.nonin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Transport over a TCP socket.
+ * Used to connect to a stand-in device on the loopback interface, for instance a process
+ * streaming a recording, so that the whole pipeline can be load tested without Bluetooth.
+ *
+ * @author Dario Salvi
+ */
+public class NoninSocketTransport implements NoninTransport {
+
+    private final String host;
+    private final int port;
+    private volatile Socket socket = null;
+    private volatile boolean aborted = false;
+
+    /**
+     * Creates the transport, the connection is done in open()
+     *
+     * @param host the host name, usually "localhost"
+     * @param port the TCP port
+     */
+    public NoninSocketTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (aborted)
+            throw new IOException("Connection to " + this + " aborted");
+        Socket s = new Socket();
+        s.setTcpNoDelay(true);
+        // visible to close(), which aborts the connect
+        socket = s;
+        s.connect(new InetSocketAddress(host, port));
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket != null)
+            socket.close();
+    }
+
+    @Override
+    public void setAborted(boolean aborted) {
+        this.aborted = aborted;
+    }
+
+    @Override
+    public String toString() {
+        return "Socket " + host + ":" + port;
+    }
+}
@@ -0,0 +1,437 @@
+package org.apache.cordova.nonin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Rolling statistics of SpO2 and HR and detection of the desaturation events, packet after packet,
+ * so that long sessions can be summarised without keeping every reading.
+ * Mean, minimum and maximum are computed on a sliding window of time, in constant amortized time
+ * per packet (running sums and monotonic queues).
+ * A desaturation is a drop of SpO2 of at least drop points below the baseline lasting at least
+ * minDuration ms. The baseline is the mean SpO2 over a longer window, it is frozen during a
+ * desaturation so that the event does not lower it. The oxygen desaturation index (ODI)
+ * is the number of desaturations per hour of valid SpO2.
+ * Readings with MISSING_SPO2, MISSING_HR or INVALID_DATA are skipped.
+ * No memory is allocated after the windows have reached their size, except for the events.
+ *
+ * @author Dario Salvi
+ */
+public class NoninStats {
+
+    public static final long DEFAULT_WINDOW = 60000;
+    public static final long DEFAULT_BASELINE_WINDOW = 120000;
+    public static final int DEFAULT_DROP = 3;
+    public static final long DEFAULT_MIN_DURATION = 10000;
+
+    /**
+     * Longest interval between two valid readings counted as monitored time, in ms
+     */
+    private static final long MAX_GAP = 5000;
+
+    private final long minDuration;
+    private final int drop;
+
+    private final Window spo2;
+    private final Window hr;
+    private final Window baseline;
+
+    private long firstValid = -1;
+    private long lastValid = -1;
+    private long validTime = 0;
+    private long readings = 0;
+
+    //ongoing drop below the baseline, not yet long enough to be a desaturation
+    private boolean dropping = false;
+    private long dropStart;
+    private double dropBaseline;
+    private int dropNadir;
+
+    private int desaturations = 0;
+    private Desaturation lastDesaturation = null;
+
+    /**
+     * Creates the statistics with the default windows and thresholds
+     */
+    public NoninStats() {
+        this(DEFAULT_WINDOW, DEFAULT_BASELINE_WINDOW, DEFAULT_DROP, DEFAULT_MIN_DURATION);
+    }
+
+    /**
+     * Creates the statistics
+     * @param window length in ms of the window of mean, minimum and maximum
+     * @param baselineWindow length in ms of the window of the baseline SpO2
+     * @param drop points of SpO2 below the baseline that start a desaturation, usually 3 or 4
+     * @param minDuration ms the drop must last to be counted as a desaturation
+     * @throws IllegalArgumentException if a value is not positive
+     */
+    public NoninStats(long window, long baselineWindow, int drop, long minDuration) {
+        if (window <= 0 || baselineWindow <= 0 || drop <= 0 || minDuration < 0)
+            throw new IllegalArgumentException("Windows and drop must be positive");
+        this.minDuration = minDuration;
+        this.drop = drop;
+        spo2 = new Window(window);
+        hr = new Window(window);
+        baseline = new Window(baselineWindow);
+    }
+
+    /**
+     * Adds the values of a packet, packets must be given in the order they are received
+     * @param packet the packet
+     * @param timestamp ms when the packet was received
+     * @return true if the packet ended a desaturation, see getLastDesaturation()
+     */
+    public boolean update(NoninPacket packet, long timestamp) {
+        readings++;
+        int h = packet.getHRAverage();
+        hr.expire(timestamp);
+        if (h != NoninPacket.MISSING_HR && h != NoninPacket.INVALID_DATA)
+            hr.add(timestamp, h);
+
+        int s = packet.getSpO2Average();
+        spo2.expire(timestamp);
+        baseline.expire(timestamp);
+        if (s == NoninPacket.MISSING_SPO2 || s == NoninPacket.INVALID_DATA)
+            return false;
+        spo2.add(timestamp, s);
+        if (lastValid >= 0)
+            validTime += Math.min(timestamp - lastValid, MAX_GAP);
+        else
+            firstValid = timestamp;
+        lastValid = timestamp;
+
+        if (dropping) {
+            if (s < dropNadir)
+                dropNadir = s;
+            if (s > dropBaseline - drop) {
+                // recovered
+                dropping = false;
+                if (timestamp - dropStart >= minDuration) {
+                    desaturations++;
+                    lastDesaturation = new Desaturation(dropStart, timestamp, dropBaseline, dropNadir);
+                    return true;
+                }
+            }
+            return false;
+        }
+        // the baseline needs some history before drops are looked for
+        if (baseline.count() > 0 && timestamp - firstValid >= minDuration && s <= baseline.mean() - drop) {
+            dropping = true;
+            dropStart = timestamp;
+            dropBaseline = baseline.mean();
+            dropNadir = s;
+        } else {
+            baseline.add(timestamp, s);
+        }
+        return false;
+    }
+
+    /**
+     * Forgets all values and events
+     */
+    public void reset() {
+        spo2.clear();
+        hr.clear();
+        baseline.clear();
+        firstValid = -1;
+        lastValid = -1;
+        validTime = 0;
+        readings = 0;
+        dropping = false;
+        desaturations = 0;
+        lastDesaturation = null;
+    }
+
+    /**
+     * Mean SpO2 in the window
+     * @return the mean, or NaN if the window has no valid value
+     */
+    public double getSpO2Mean() {
+        return spo2.mean();
+    }
+
+    /**
+     * Minimum SpO2 in the window
+     * @return the minimum, or INVALID_DATA if the window has no valid value
+     */
+    public int getSpO2Min() {
+        return spo2.min();
+    }
+
+    /**
+     * Maximum SpO2 in the window
+     * @return the maximum, or INVALID_DATA if the window has no valid value
+     */
+    public int getSpO2Max() {
+        return spo2.max();
+    }
+
+    /**
+     * Mean HR in the window
+     * @return the mean, or NaN if the window has no valid value
+     */
+    public double getHRMean() {
+        return hr.mean();
+    }
+
+    /**
+     * Minimum HR in the window
+     * @return the minimum, or INVALID_DATA if the window has no valid value
+     */
+    public int getHRMin() {
+        return hr.min();
+    }
+
+    /**
+     * Maximum HR in the window
+     * @return the maximum, or INVALID_DATA if the window has no valid value
+     */
+    public int getHRMax() {
+        return hr.max();
+    }
+
+    /**
+     * Current baseline SpO2, frozen during a desaturation
+     * @return the baseline, or NaN if not yet known
+     */
+    public double getBaseline() {
+        return dropping ? dropBaseline : baseline.mean();
+    }
+
+    /**
+     * Number of desaturations since the start
+     * @return the number of events
+     */
+    public int getDesaturationCount() {
+        return desaturations;
+    }
+
+    /**
+     * The last desaturation that ended
+     * @return the event, or null if there was none
+     */
+    public Desaturation getLastDesaturation() {
+        return lastDesaturation;
+    }
+
+    /**
+     * Time with valid SpO2 readings, gaps longer than 5 seconds excluded
+     * @return the time in ms
+     */
+    public long getValidTime() {
+        return validTime;
+    }
+
+    /**
+     * Oxygen desaturation index
+     * @return desaturations per hour of valid SpO2, 0 if there is no valid time yet
+     */
+    public double getODI() {
+        return validTime > 0 ? desaturations * 3600000.0 / validTime : 0;
+    }
+
+    /**
+     * Number of packets given to update()
+     * @return the number of packets
+     */
+    public long getReadingCount() {
+        return readings;
+    }
+
+    /**
+     * Summary of the statistics, as sent to JavaScript
+     * @param timestamp ms when the summary is made
+     * @return the summary
+     * @throws JSONException if the object cannot be built
+     */
+    public JSONObject toJSON(long timestamp) throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put("type", "stats");
+        r.put("timestamp", timestamp);
+        if (spo2.count() > 0) {
+            r.put("spo2Mean", spo2.mean());
+            r.put("spo2Min", spo2.min());
+            r.put("spo2Max", spo2.max());
+        }
+        if (hr.count() > 0) {
+            r.put("hrMean", hr.mean());
+            r.put("hrMin", hr.min());
+            r.put("hrMax", hr.max());
+        }
+        double b = getBaseline();
+        if (!Double.isNaN(b))
+            r.put("baseline", b);
+        r.put("desaturations", desaturations);
+        r.put("odi", getODI());
+        r.put("validTime", validTime);
+        r.put("readings", readings);
+        return r;
+    }
+
+    /**
+     * A desaturation event
+     */
+    public static class Desaturation {
+
+        private final long start;
+        private final long end;
+        private final double baseline;
+        private final int nadir;
+
+        Desaturation(long start, long end, double baseline, int nadir) {
+            this.start = start;
+            this.end = end;
+            this.baseline = baseline;
+            this.nadir = nadir;
+        }
+
+        /**
+         * @return ms when the SpO2 dropped below the threshold
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return ms when the SpO2 went back above the threshold
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the baseline SpO2 before the event
+         */
+        public double getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * @return the lowest SpO2 during the event
+         */
+        public int getNadir() {
+            return nadir;
+        }
+
+        /**
+         * The event, as sent to JavaScript
+         * @return the event
+         * @throws JSONException if the object cannot be built
+         */
+        public JSONObject toJSON() throws JSONException {
+            JSONObject r = new JSONObject();
+            r.put("type", "desaturation");
+            r.put("start", start);
+            r.put("end", end);
+            r.put("duration", end - start);
+            r.put("baseline", baseline);
+            r.put("nadir", nadir);
+            r.put("drop", baseline - nadir);
+            return r;
+        }
+    }
+
+    /**
+     * Values in a sliding window of time, with running sum and monotonic queues
+     * for minimum and maximum. Values are addressed by their sequence number,
+     * the arrays are rings whose size is a power of 2, doubled when full.
+     */
+    private static class Window {
+
+        private final long length;
+        private long[] times = new long[64];
+        private int[] values = new int[64];
+        private int mask = 63;
+        //sequence numbers of the oldest value and of the next one
+        private long head = 0;
+        private long tail = 0;
+        private long sum = 0;
+
+        //sequence numbers of the candidates for minimum and maximum, values increasing and decreasing
+        private long[] mins = new long[64];
+        private long minHead = 0;
+        private long minTail = 0;
+        private long[] maxs = new long[64];
+        private long maxHead = 0;
+        private long maxTail = 0;
+
+        Window(long length) {
+            this.length = length;
+        }
+
+        void add(long time, int value) {
+            if (tail - head == times.length)
+                grow();
+            times[(int) (tail & mask)] = time;
+            values[(int) (tail & mask)] = value;
+            sum += value;
+            while (minTail > minHead && values[(int) (mins[(int) ((minTail - 1) & mask)] & mask)] >= value)
+                minTail--;
+            mins[(int) (minTail++ & mask)] = tail;
+            while (maxTail > maxHead && values[(int) (maxs[(int) ((maxTail - 1) & mask)] & mask)] <= value)
+                maxTail--;
+            maxs[(int) (maxTail++ & mask)] = tail;
+            tail++;
+        }
+
+        /**
+         * Removes the values older than the window
+         * @param now the current time
+         */
+        void expire(long now) {
+            while (head < tail && times[(int) (head & mask)] <= now - length) {
+                sum -= values[(int) (head & mask)];
+                if (mins[(int) (minHead & mask)] == head)
+                    minHead++;
+                if (maxs[(int) (maxHead & mask)] == head)
+                    maxHead++;
+                head++;
+            }
+        }
+
+        int count() {
+            return (int) (tail - head);
+        }
+
+        double mean() {
+            return tail > head ? (double) sum / (tail - head) : Double.NaN;
+        }
+
+        int min() {
+            return tail > head ? values[(int) (mins[(int) (minHead & mask)] & mask)] : NoninPacket.INVALID_DATA;
+        }
+
+        int max() {
+            return tail > head ? values[(int) (maxs[(int) (maxHead & mask)] & mask)] : NoninPacket.INVALID_DATA;
+        }
+
+        void clear() {
+            head = tail = 0;
+            minHead = minTail = 0;
+            maxHead = maxTail = 0;
+            sum = 0;
+        }
+
+        private void grow() {
+            int size = times.length * 2;
+            long[] t = new long[size];
+            int[] v = new int[size];
+            long[] mn = new long[size];
+            long[] mx = new long[size];
+            int newMask = size - 1;
+            for (long i = head; i < tail; i++) {
+                t[(int) (i & newMask)] = times[(int) (i & mask)];
+                v[(int) (i & newMask)] = values[(int) (i & mask)];
+            }
+            for (long i = minHead; i < minTail; i++)
+                mn[(int) (i & newMask)] = mins[(int) (i & mask)];
+            for (long i = maxHead; i < maxTail; i++)
+                mx[(int) (i & newMask)] = maxs[(int) (i & mask)];
+            times = t;
+            values = v;
+            mins = mn;
+            maxs = mx;
+            mask = newMask;
+        }
+    }
+}
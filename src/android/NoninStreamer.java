@@ -0,0 +1,443 @@
+package org.apache.cordova.nonin;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the streaming from a device: connects the transport, sets the data mode,
+ * reads and parses the stream and dispatches the packets.
+ * The lifecycle is IDLE -> CONNECTING -> STREAMING -> STOPPING -> IDLE, stop() only returns
+ * when the reader and the dispatcher have exited, so two readers never share a stream.
+ * With setReconnect(), when the stream ends by itself the reader goes STREAMING -> RECONNECTING
+ * and opens the transport again after the delays of the backoff, back to STREAMING with the same
+ * dispatcher, so the handler keeps receiving packets as if nothing had happened.
+ * The threads are taken from a shared pool of named daemon threads.
+ *
+ * @author Dario Salvi
+ */
+public class NoninStreamer {
+
+    /**
+     * States of the streamer
+     */
+    public enum State {
+        /**
+         * Not connected
+         */
+        IDLE,
+        /**
+         * Opening the transport
+         */
+        CONNECTING,
+        /**
+         * Reading the stream
+         */
+        STREAMING,
+        /**
+         * The link was lost, opening the transport again
+         */
+        RECONNECTING,
+        /**
+         * Waiting for the reader and the dispatcher to exit
+         */
+        STOPPING
+    }
+
+    /**
+     * Idle threads are kept this long before being terminated
+     */
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    /**
+     * Shared by all the streamers, each one uses two threads while streaming, and by the subscribers
+     */
+    private static final ExecutorService executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Nonin-" + threadCounter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * Gives the pool of threads shared by the streamers, for other dispatchers of their packets
+     * @return the executor, its threads are daemons named Nonin-n and expire when idle
+     */
+    public static Executor getExecutor() {
+        return executor;
+    }
+
+    private final NoninTransport transport;
+    private final NoninPacketListener handler;
+    private final NoninCounters counters = new NoninCounters();
+
+    private State state = State.IDLE;
+    private NoninFormat format = NoninFormat.D7;
+    private int dispatchQueueCapacity = NoninDispatcher.DEFAULT_CAPACITY;
+    private boolean lossless = false;
+    // null if the link is not reopened when lost
+    private NoninBackoff backoff = null;
+
+    private NoninParser parser;
+    private NoninDispatcher dispatcher;
+    private NoninPacketPool pool;
+    private Future<?> reader;
+
+    /**
+     * Creates the streamer
+     * @param transport the channel to the device
+     * @param handler receives the packets, on the dispatching thread
+     */
+    public NoninStreamer(NoninTransport transport, NoninPacketListener handler) {
+        this.transport = transport;
+        this.handler = handler;
+    }
+
+    /**
+     * Connects and starts streaming, does nothing if not IDLE.
+     * Blocks while the transport is opened, stop() can be called meanwhile to abort it.
+     * @throws IOException if the transport cannot be opened or the data mode cannot be set
+     * @throws RuntimeException if the transport fails otherwise, the streamer is IDLE again
+     */
+    public void start() throws IOException {
+        synchronized (this) {
+            if (state != State.IDLE)
+                return;
+            transport.setAborted(false);
+            setState(State.CONNECTING);
+        }
+
+        // opening can take seconds, it is done without holding the lock so that stop() can abort it
+        boolean opened = false;
+        try {
+            transport.open();
+            transport.getOutputStream().write(format.getCommand());
+            opened = true;
+        } finally {
+            if (!opened) {
+                // any failure, not only IOException, must not leave the streamer CONNECTING
+                closeTransport();
+                synchronized (this) {
+                    setState(State.IDLE);
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (state == State.STOPPING) {
+                // stopped while connecting
+                closeTransport();
+                setState(State.IDLE);
+                return;
+            }
+            dispatcher = new NoninDispatcher(handler, dispatchQueueCapacity, counters);
+            dispatcher.setLossless(lossless);
+            dispatcher.start(executor, "Nonin dispatcher " + transport);
+            pool = new NoninPacketPool(dispatcher.getQueueCapacity() + 2);
+            final NoninParser p = new NoninParser(transport.getInputStream(), dispatcher, pool, format.createDecoder(), counters);
+            parser = p;
+            final String name = "Nonin reader " + transport;
+            reader = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Thread current = Thread.currentThread();
+                    String previousName = current.getName();
+                    current.setName(name);
+                    try {
+                        stream(p);
+                    } finally {
+                        current.setName(previousName);
+                    }
+                }
+            });
+            setState(State.STREAMING);
+        }
+    }
+
+    /**
+     * Runs the parser until stopped, and again on a new connection each time the link is lost
+     * @param p the parser of the first connection
+     */
+    private void stream(NoninParser p) {
+        while (p != null) {
+            p.run();
+            p = reconnect();
+        }
+    }
+
+    /**
+     * Opens the transport again after the delays of the backoff
+     * @return the parser of the new connection, or null if stopped, not reconnecting or out of attempts
+     */
+    private NoninParser reconnect() {
+        NoninBackoff b;
+        synchronized (this) {
+            if (state != State.STREAMING || backoff == null)
+                return null;
+            b = backoff;
+            setState(State.RECONNECTING);
+        }
+        counters.addLinkLoss(System.nanoTime());
+        closeTransport();
+        b.reset();
+        while (true) {
+            long delay = b.nextDelay();
+            synchronized (this) {
+                if (delay < 0 || !waitWhileReconnecting(delay)) {
+                    if (state == State.RECONNECTING) {
+                        // given up, as if not reconnecting
+                        setState(State.STREAMING);
+                    }
+                    return null;
+                }
+            }
+            NoninParser p;
+            try {
+                transport.open();
+                transport.getOutputStream().write(format.getCommand());
+                p = new NoninParser(transport.getInputStream(), dispatcher, pool, format.createDecoder(), counters);
+            } catch (IOException e) {
+                closeTransport();
+                continue;
+            }
+            synchronized (this) {
+                if (state != State.RECONNECTING) {
+                    // stopped while connecting
+                    closeTransport();
+                    return null;
+                }
+                parser = p;
+                setState(State.STREAMING);
+                return p;
+            }
+        }
+    }
+
+    /**
+     * Waits, releasing the lock, for a delay or until the state is no longer RECONNECTING
+     * @return true if still reconnecting after the delay
+     */
+    private boolean waitWhileReconnecting(long delay) {
+        long deadline = System.currentTimeMillis() + delay;
+        while (state == State.RECONNECTING) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0)
+                return true;
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops streaming and returns when the reader and the dispatcher have exited.
+     * If called while connecting, the connection is aborted, if called while reconnecting, the reconnection.
+     */
+    public void stop() {
+        Future<?> r;
+        synchronized (this) {
+            if (state == State.CONNECTING) {
+                setState(State.STOPPING);
+                transport.setAborted(true);
+                // makes the connection fail, start() will go back to IDLE
+                closeTransport();
+                waitForState(State.IDLE);
+                return;
+            }
+            if (state != State.STREAMING && state != State.RECONNECTING) {
+                waitForState(State.IDLE);
+                return;
+            }
+            setState(State.STOPPING);
+            transport.setAborted(true);
+            parser.stop();
+            // unblocks the reader, or the reconnection
+            closeTransport();
+            r = reader;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                r.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // the reader failed, it has exited anyway
+                break;
+            }
+        }
+        while (true) {
+            try {
+                dispatcher.stop();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        synchronized (this) {
+            reader = null;
+            setState(State.IDLE);
+        }
+    }
+
+    /**
+     * Tells the current state
+     * @return the state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Tells if the reader exited by itself while streaming, for example because the link was lost
+     * @return true if streaming but the reader has exited
+     */
+    public synchronized boolean hasReaderExited() {
+        return state == State.STREAMING && reader.isDone();
+    }
+
+    /**
+     * Tells why the reader stopped
+     * @return the exception thrown by the stream while parsing, or null
+     */
+    public synchronized IOException getError() {
+        return parser != null ? parser.getError() : null;
+    }
+
+    /**
+     * Sets the data mode sent to the device, applied at the next start()
+     * @param dataMode D7, D13, D8 or D2
+     * @throws IllegalArgumentException if the data mode is unknown
+     */
+    public synchronized void setDataMode(String dataMode) {
+        setFormat(NoninFormat.fromName(dataMode));
+    }
+
+    /**
+     * Sets the data format requested to the device and decoded, applied at the next start()
+     * @param format the data format
+     */
+    public synchronized void setFormat(NoninFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Tells the data format requested to the device
+     * @return the data format
+     */
+    public synchronized NoninFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets how many packets can wait for the handler before new ones are dropped,
+     * applied at the next start()
+     * @param capacity the capacity of the queue, rounded up to a power of 2
+     */
+    public synchronized void setDispatchQueueCapacity(int capacity) {
+        dispatchQueueCapacity = capacity;
+    }
+
+    /**
+     * Makes the reader wait for the handler instead of dropping packets when the queue is full,
+     * for transports that are not paced by a device, applied at the next start()
+     * @param lossless true to never drop packets
+     */
+    public synchronized void setLossless(boolean lossless) {
+        this.lossless = lossless;
+    }
+
+    /**
+     * Makes the reader open the transport again when the stream ends by itself, applied at the next loss of the link
+     * @param backoff the delays between the attempts, null to stop when the link is lost
+     */
+    public synchronized void setReconnect(NoninBackoff backoff) {
+        this.backoff = backoff;
+    }
+
+    /**
+     * Gives the dispatcher of the last session, with its queue counters
+     * @return the dispatcher, or null if never started
+     */
+    public synchronized NoninDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Gives the counters of the parser and the dispatcher, summed over all the starts
+     * @return the counters
+     */
+    public NoninCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * The channel to the device
+     * @return the transport
+     */
+    public NoninTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Builds the command that sets the data mode of the device
+     *
+     * @param dataMode the datamode to set on the device
+     * @return the bytes of the command
+     * @throws IllegalArgumentException if the data mode is unknown
+     */
+    public static byte[] getDataModeCommand(String dataMode) {
+        return NoninFormat.fromName(dataMode).getCommand();
+    }
+
+    private void setState(State newState) {
+        state = newState;
+        notifyAll();
+    }
+
+    /**
+     * Waits, releasing the lock, until the state is reached
+     */
+    private void waitForState(State expected) {
+        boolean interrupted = false;
+        while (state != expected) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void closeTransport() {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            //nothing more can be done
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package org.apache.cordova.nonin;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * One receiver of the data of a session, with its own delivery options.
+ * Each subscriber has its own queue and thread, so a slow subscriber only fills its own queue
+ * and never delays the parser nor the other subscribers. What happens when its queue is full is
+ * chosen with options.overflow, and options.maxRate skips packets before they are queued.
+ * The statistics are updated before the rate limit and the queue, so they see every packet.
+ *
+ * @author Dario Salvi
+ */
+public class NoninSubscriber implements NoninPacketListener {
+
+    /**
+     * options.overflow: the oldest packets waiting are dropped to make room for new ones
+     */
+    public static final String DROP_OLDEST = "dropOldest";
+    /**
+     * options.overflow: only the newest packet waits, the others are replaced
+     */
+    public static final String LATEST = "latest";
+    /**
+     * options.overflow: packets wait in a queue of options.queueSize, new ones are dropped when it is full
+     */
+    public static final String BUFFER = "buffer";
+
+    private final int id;
+    private final CallbackContext callbackContext;
+    // options.binary -> packets are sent as ArrayBuffer instead of JSON
+    private final boolean binary;
+    // options.fields -> only these fields are computed and sent
+    private final int fields;
+    // options.batchSize, options.batchInterval -> packets are grouped before being sent
+    private final NoninBatch batch;
+    // options.ppgDecimation -> the PPG is low-pass filtered and decimated, null if not requested
+    private final NoninPlethFilter filter;
+    // options.stats -> rolling statistics and desaturations are sent, null if not requested
+    private final NoninStats stats;
+    // options.stats.interval -> ms between two summaries
+    private final long statsInterval;
+    private long lastStats = -1;
+    // options.onChange, options.keepAlive -> only packets that changed are sent, null to send all
+    private final NoninChangeFilter changes;
+    // options.packets -> if false only the statistics are sent
+    private final boolean packets;
+    // options.partialPackets -> packets with missing frames are sent too, they are always used for the statistics
+    private final boolean partialPackets;
+    // options.maxRate -> minimum ns between two packets queued, 0 for no limit
+    private final long minIntervalNanos;
+    private long lastQueued = 0;
+    private volatile long skipped = 0;
+    // options.overflow, options.queueSize -> the queue and the thread of this subscriber
+    private final String overflow;
+    private final NoninCounters counters = new NoninCounters();
+    private final NoninDispatcher dispatcher;
+    // time from the reading of a packet to its delivery to JavaScript
+    private final NoninLatencyHistogram latency = new NoninLatencyHistogram();
+    // when the oldest packet in the batch was read
+    private long batchReceived;
+
+    /**
+     * Creates the subscriber, packets are delivered only after start()
+     *
+     * @param id identifier of the subscriber in its session, 0 for the callback given to start
+     * @param options the delivery options, can be null
+     * @param callbackContext where the data is sent
+     * @throws JSONException if the options are malformed
+     * @throws IllegalArgumentException if the options have wrong values
+     */
+    public NoninSubscriber(int id, JSONObject options, CallbackContext callbackContext) throws JSONException {
+        if (options == null)
+            options = new JSONObject();
+        this.id = id;
+        this.callbackContext = callbackContext;
+        binary = options.optBoolean("binary", false);
+        fields = NoninPacketSerializer.parseFields(options.optJSONArray("fields"));
+        int batchSize = options.optInt("batchSize", 0);
+        long batchInterval = options.optLong("batchInterval", 0);
+        batch = (batchSize > 0 || batchInterval > 0) ? new NoninBatch(batchSize, batchInterval, fields) : null;
+        int decimation = options.optInt("ppgDecimation", 1);
+        filter = (decimation != 1 && (fields & NoninPacketSerializer.FIELD_PPG) != 0) ? new NoninPlethFilter(decimation) : null;
+        JSONObject statsOptions = options.optJSONObject("stats");
+        if (statsOptions == null && options.optBoolean("stats", false))
+            statsOptions = new JSONObject();
+        if (statsOptions != null) {
+            stats = new NoninStats(statsOptions.optLong("window", NoninStats.DEFAULT_WINDOW),
+                    statsOptions.optLong("baselineWindow", NoninStats.DEFAULT_BASELINE_WINDOW),
+                    statsOptions.optInt("drop", NoninStats.DEFAULT_DROP),
+                    statsOptions.optLong("minDuration", NoninStats.DEFAULT_MIN_DURATION));
+            statsInterval = statsOptions.optLong("interval", 10000);
+        } else {
+            stats = null;
+            statsInterval = 0;
+        }
+        packets = options.optBoolean("packets", true);
+        partialPackets = options.optBoolean("partialPackets", false);
+        if (options.has("onChange") && !Boolean.FALSE.equals(options.get("onChange"))) {
+            JSONArray onChange = options.optJSONArray("onChange");
+            // true compares the fields that are sent
+            int compared = onChange != null ? NoninPacketSerializer.parseFields(onChange) : fields & NoninChangeFilter.COMPARABLE_FIELDS;
+            changes = new NoninChangeFilter(compared, options.optLong("keepAlive", NoninChangeFilter.DEFAULT_KEEP_ALIVE));
+        } else {
+            changes = null;
+        }
+        double maxRate = options.optDouble("maxRate", 0);
+        if (maxRate < 0)
+            throw new IllegalArgumentException("maxRate cannot be negative");
+        minIntervalNanos = maxRate > 0 ? (long) (1e9 / maxRate) : 0;
+        overflow = options.optString("overflow", BUFFER);
+        int queueSize = options.optInt("queueSize", NoninDispatcher.DEFAULT_CAPACITY);
+        if (LATEST.equals(overflow)) {
+            dispatcher = new NoninDispatcher(this, 1, counters);
+            dispatcher.setOverflow(NoninDispatcher.Overflow.DROP_OLDEST);
+        } else if (DROP_OLDEST.equals(overflow)) {
+            dispatcher = new NoninDispatcher(this, queueSize, counters);
+            dispatcher.setOverflow(NoninDispatcher.Overflow.DROP_OLDEST);
+        } else if (BUFFER.equals(overflow)) {
+            dispatcher = new NoninDispatcher(this, queueSize, counters);
+        } else {
+            throw new IllegalArgumentException("Unknown overflow " + overflow);
+        }
+        if (batch != null && batchInterval > 0) {
+            // the batch is sent at its deadline also when no packet arrives
+            dispatcher.setIdleListener(new NoninDispatcher.IdleListener() {
+                @Override
+                public long idle() {
+                    return sendExpiredBatch();
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts delivering the packets, on a thread of the pool shared with the streamers
+     * @param name name of the thread while delivering
+     */
+    public void start(String name) {
+        dispatcher.start(NoninStreamer.getExecutor(), name);
+    }
+
+    /**
+     * Stops delivering, the packets still queued are discarded, the data still in the batch
+     * and a last summary of the statistics are sent
+     */
+    public void stop() {
+        try {
+            dispatcher.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // the thread has stopped, nobody else is using the batch
+        if (batch != null && batch.size() > 0)
+            sendBatch();
+        if (stats != null) {
+            synchronized (stats) {
+                if (stats.getReadingCount() > 0)
+                    sendStats(System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Passes a packet to the subscriber, called by the thread of the session, never waits
+     * @param packet the packet, retained if queued
+     * @param now ms since 1970 when the packet was read
+     */
+    public void offer(NoninPacket packet, long now) {
+        if (stats != null) {
+            synchronized (stats) {
+                updateStats(packet, now);
+            }
+        }
+        if (!packets || (!partialPackets && !packet.isComplete()))
+            return;
+        if (minIntervalNanos > 0) {
+            long received = packet.getReceivedTime() != 0 ? packet.getReceivedTime() : System.nanoTime();
+            if (lastQueued != 0 && received - lastQueued < minIntervalNanos) {
+                skipped++;
+                return;
+            }
+            lastQueued = received;
+        }
+        dispatcher.handle(packet);
+    }
+
+    private void updateStats(NoninPacket packet, long now) {
+        if (stats.update(packet, now)) {
+            try {
+                send(stats.getLastDesaturation().toJSON());
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        if (lastStats < 0)
+            lastStats = now;
+        if (now - lastStats >= statsInterval) {
+            sendStats(now);
+            lastStats = now;
+        }
+    }
+
+    /**
+     * Delivers a packet, called by the thread of the subscriber
+     */
+    @Override
+    public void handle(NoninPacket packet) {
+        long now = System.currentTimeMillis();
+        if (packet.getReceivedTime() != 0) {
+            // the time of the reading, not of the delivery, which may come later for a slow subscriber
+            now -= (System.nanoTime() - packet.getReceivedTime()) / 1000000;
+        }
+        if (changes != null && !changes.accept(packet, now))
+            return;
+        int[] ppg = null;
+        int ppgCount = 0;
+        if (filter != null) {
+            ppgCount = filter.filter(packet);
+            ppg = filter.getSamples();
+        }
+        if (batch != null) {
+            if (batch.size() == 0)
+                batchReceived = packet.getReceivedTime();
+            batch.add(packet, now, ppg, ppgCount);
+            if (batch.isReady(now))
+                sendBatch();
+            return;
+        }
+        PluginResult result;
+        if (binary) {
+            result = new PluginResult(PluginResult.Status.OK, NoninPacketSerializer.toBytes(packet, now, fields, ppg, ppgCount));
+        } else {
+            JSONObject r = new JSONObject();
+            try {
+                r = NoninPacketSerializer.toJSON(packet, now, fields, ppg, ppgCount);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            result = new PluginResult(PluginResult.Status.OK, r);
+        }
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        recordLatency(packet.getReceivedTime());
+    }
+
+    /**
+     * Sends the batch if older than options.batchInterval, called by the thread of the subscriber
+     * @return ns until the batch must be sent, 0 if empty
+     */
+    private long sendExpiredBatch() {
+        if (batch.size() == 0)
+            return 0;
+        long now = System.currentTimeMillis();
+        if (batch.isReady(now)) {
+            sendBatch();
+            return 0;
+        }
+        return (batch.getDeadline() - now) * 1000000;
+    }
+
+    /**
+     * Sends a summary of the statistics
+     */
+    private void sendStats(long now) {
+        try {
+            send(stats.toJSON(now));
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void send(JSONObject event) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    /**
+     * Sends the content of the batch and empties it
+     */
+    private void sendBatch() {
+        PluginResult result;
+        if (binary) {
+            result = new PluginResult(PluginResult.Status.OK, batch.toBytes());
+        } else {
+            JSONObject r = new JSONObject();
+            try {
+                r = batch.toJSON();
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            result = new PluginResult(PluginResult.Status.OK, r);
+        }
+        batch.clear();
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        recordLatency(batchReceived);
+    }
+
+    /**
+     * Adds the time since a packet was read to the latency histogram
+     * @param received System.nanoTime() when the packet was read, 0 if unknown
+     */
+    private void recordLatency(long received) {
+        if (received != 0)
+            latency.record(System.nanoTime() - received);
+    }
+
+    /**
+     * Identifier of the subscriber in its session
+     * @return the id, 0 for the callback given to start
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Latency from the reading of a packet to its delivery to JavaScript
+     * @return the histogram
+     */
+    public NoninLatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Describes what the subscriber has done
+     * @return the policy, the state of the queue, the packets delivered, dropped and skipped and the latency
+     * @throws JSONException if the object cannot be built
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put("id", id);
+        r.put("overflow", overflow);
+        r.put("queueDepth", dispatcher.getQueueDepth());
+        r.put("maxQueueDepth", dispatcher.getMaxQueueDepth());
+        r.put("queueCapacity", dispatcher.getQueueCapacity());
+        r.put("deliveredPackets", dispatcher.getDispatchedCount());
+        r.put("droppedPackets", dispatcher.getDroppedCount());
+        r.put("skippedPackets", skipped);
+        r.put("maxHandlerTime", counters.getMaxHandlerNanos() / 1e6);
+        r.put("latency", latency.toJSON());
+        return r;
+    }
+}
@@ -0,0 +1,49 @@
+package org.apache.cordova.nonin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Channel of bytes towards a Nonin pulse oximeter (or anything pretending to be one).
+ * The parser only needs the input stream and the commands are written to the output stream,
+ * so the same pipeline can run over Bluetooth, a recording or a local socket.
+ *
+ * @author Dario Salvi
+ */
+public interface NoninTransport {
+
+    /**
+     * Opens the channel, blocking until it is ready to be used
+     * @throws IOException if the channel cannot be opened
+     */
+    public void open() throws IOException;
+
+    /**
+     * Gives the stream of bytes coming from the device, only valid after open()
+     * @return the input stream
+     * @throws IOException if the stream cannot be obtained
+     */
+    public InputStream getInputStream() throws IOException;
+
+    /**
+     * Gives the stream used to send commands to the device, only valid after open()
+     * @return the output stream
+     * @throws IOException if the stream cannot be obtained
+     */
+    public OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Closes the channel and its streams, a blocked read on the input stream will be interrupted
+     * @throws IOException if the channel cannot be closed cleanly
+     */
+    public void close() throws IOException;
+
+    /**
+     * Tells the channel if streaming is being stopped: while aborted an open() in progress gives up
+     * as soon as it can and a later one fails, close() alone does not abort, as it is also used to release
+     * a lost connection before opening it again
+     * @param aborted true when stopping, false when starting
+     */
+    public void setAborted(boolean aborted);
+}
@@ -0,0 +1,93 @@
+package org.apache.cordova.nonin;
+
+/**
+ * Decodes the trend data formats, which send one record per second and no PPG:
+ * format 8: status, HR MSB, HR LSB, SpO2 (4 bytes)
+ * format 13: status, HR MSB, HR LSB, SpO2, STAT2, checksum (6 bytes)
+ * Bit 7 is set only in the status byte, which has the same flags as in format 7.
+ * The checksum of format 13 is the sum of the previous five bytes.
+ * Each record becomes a packet, see NoninPacket.setTrend().
+ *
+ * @author Dario Salvi
+ */
+public class NoninTrendDecoder implements NoninDecoder {
+
+    private final boolean extended;
+    private final int[] record;
+    private int count = 0;
+    //true if the last record was valid
+    private boolean synced = false;
+    //true if a valid record was followed by invalid bytes and no valid record came since
+    private boolean lost = false;
+    private NoninCounters counters = new NoninCounters();
+
+    /**
+     * Creates the decoder
+     * @param extended true for format 13, false for format 8
+     */
+    public NoninTrendDecoder(boolean extended) {
+        this.extended = extended;
+        record = new int[extended ? 6 : 4];
+    }
+
+    @Override
+    public int decode(byte[] buffer, int offset, int length, NoninPacket packet) {
+        for (int i = 0; i < length; i++) {
+            int value = buffer[offset + i] & 0xFF;
+            boolean isStatus = (value & 0x80) != 0;
+            if (count == 0 && !isStatus) {
+                invalid(1);
+                continue;
+            }
+            if (isStatus && count > 0 && count < 5) {
+                // a status byte among the values, the record starts again from here
+                // (only the checksum, 6th byte of format 13, can have bit 7 set)
+                invalid(count);
+                count = 0;
+            }
+            record[count++] = value;
+            if (count < record.length)
+                continue;
+            count = 0;
+            if (extended) {
+                int sum = record[0] + record[1] + record[2] + record[3] + record[4];
+                if ((sum & 0xFF) != record[5]) {
+                    invalid(record.length);
+                    continue;
+                }
+            }
+            counters.addValidFrame();
+            if (lost)
+                counters.addResync();
+            synced = true;
+            lost = false;
+            packet.setTrend(record[0], record[1], record[2], record[3], extended ? record[4] : 0);
+            return i + 1;
+        }
+        return length;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        synced = false;
+        lost = false;
+    }
+
+    @Override
+    public void setCounters(NoninCounters counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * Counts bytes that are not part of a valid record
+     */
+    private void invalid(int skipped) {
+        if (synced) {
+            counters.addInvalidFrame();
+            synced = false;
+            lost = true;
+        }
+        counters.addSkippedBytes(skipped);
+    }
+}
@@ -1,8 +1,114 @@
-
 var exec = require("cordova/exec");
 
 var Nonin = function () {
     this.name = "Nonin";
+    this.nextSubscription = 1;
+};
+
+/**
+ * Decodes the flags and values of a reading, starting from the flags byte.
+ * Values carried by missing frames are -1 as in JSON, including the PPG samples
+ * of the missing frames, which are 0xFFFF in the binary layout (see decodePPG).
+ */
+var decodeReading = function (view, pos) {
+    var flags = view.getUint8(pos);
+    var reading = {
+        spo2: view.getInt16(pos + 1),
+        instantSpo2: view.getInt16(pos + 3),
+        hr: view.getInt16(pos + 5),
+        timestamp: view.getFloat64(pos + 9),
+        timer: view.getInt16(pos + 7),
+        hasArtifacts: (flags & 0x01) !== 0,
+        hasSustainedArtifacts: (flags & 0x02) !== 0,
+        nofinger: (flags & 0x04) !== 0,
+        batterylow: (flags & 0x08) !== 0,
+        sensorAlarm: (flags & 0x04) !== 0,
+        smartPoint: (flags & 0x10) !== 0
+    };
+    if ((flags & 0x20) !== 0) {
+        // the positions of the missing frames are only sent in JSON
+        reading.missing = true;
+    }
+    return reading;
+};
+
+/**
+ * Decodes uint16 PPG samples, 0xFFFF is a missing sample and becomes -1 as in JSON,
+ * present samples are capped at 0xFFFE by the plugin in both modes
+ */
+var decodePPG = function (view, pos, samples) {
+    var ppg = new Int32Array(samples);
+    for (var i = 0; i < samples; i++) {
+        var sample = view.getUint16(pos + 2 * i);
+        ppg[i] = sample === 0xFFFF ? -1 : sample;
+    }
+    return ppg;
+};
+
+/**
+ * Decodes a batch sent in binary mode, see NoninBatch.toBytes()
+ */
+var decodeBatch = function (buffer) {
+    var view = new DataView(buffer);
+    var count = view.getUint16(2);
+    var readings = [];
+    for (var i = 0; i < count; i++) {
+        readings.push(decodeReading(view, 4 + 17 * i));
+    }
+    var pos = 4 + 17 * count;
+    var samples = view.getUint32(pos);
+    return {
+        readings: readings,
+        PPG: decodePPG(view, pos + 4, samples)
+    };
+};
+
+/**
+ * Decodes a packet sent in binary mode, see NoninPacketSerializer.toBytes()
+ */
+var decodePacket = function (buffer) {
+    var view = new DataView(buffer);
+    if (view.getUint8(0) === 2) {
+        return decodeBatch(buffer);
+    }
+    var reading = decodeReading(view, 1);
+    reading.PPG = decodePPG(view, 20, view.getUint16(18));
+    return reading;
+};
+
+/**
+ * Removes the fields that were not requested, binary data always contains all of them
+ */
+var project = function (data, fields) {
+    var reading;
+    var readings = data.readings || [data];
+    for (var i = 0; i < readings.length; i++) {
+        reading = readings[i];
+        for (var key in reading) {
+            if (reading.hasOwnProperty(key) && key !== "PPG" && key !== "missing" && fields.indexOf(key) < 0) {
+                delete reading[key];
+            }
+        }
+    }
+    if (fields.indexOf("PPG") < 0) {
+        delete data.PPG;
+    }
+    return data;
+};
+
+/**
+ * Wraps a callback so that it receives the binary data decoded
+ */
+var decoding = function (options, onSuccess) {
+    return function (data) {
+        if (data instanceof ArrayBuffer) {
+            data = decodePacket(data);
+            if (options.fields) {
+                data = project(data, options.fields);
+            }
+        }
+        onSuccess(data);
+    };
 };
 
 Nonin.prototype.askPermissions = function (onSuccess, onError) {
@@ -21,12 +127,86 @@ Nonin.prototype.isPaired = function (address, onSuccess, onError) {
     exec(onSuccess, onError, "Nonin", "isPaired", [address]);
 };
 
-Nonin.prototype.start = function (address, onSuccess, onError) {
-    exec(onSuccess, onError, "Nonin", "start", [address]);
+Nonin.prototype.arePaired = function (addresses, onSuccess, onError) {
+    exec(onSuccess, onError, "Nonin", "arePaired", [addresses]);
+};
+
+Nonin.prototype.getPairedDevices = function (onSuccess, onError) {
+    exec(onSuccess, onError, "Nonin", "getPairedDevices", []);
+};
+
+Nonin.prototype.start = function (address, options, onSuccess, onError) {
+    if (typeof options === "function") {
+        // options are optional
+        onError = onSuccess;
+        onSuccess = options;
+        options = {};
+    }
+    options = options || {};
+    exec(decoding(options, onSuccess), onError, "Nonin", "start", [address, options]);
+};
+
+/**
+ * Adds a receiver of the data of a started device, with its own delivery options,
+ * returns the id to be passed to unsubscribe
+ */
+Nonin.prototype.subscribe = function (address, options, onData, onError) {
+    if (typeof options === "function") {
+        // options are optional
+        onError = onData;
+        onData = options;
+        options = {};
+    }
+    options = options || {};
+    var id = this.nextSubscription++;
+    exec(decoding(options, onData), onError, "Nonin", "subscribe", [address, id, options]);
+    return id;
+};
+
+Nonin.prototype.unsubscribe = function (address, id, onSuccess, onError) {
+    exec(onSuccess, onError, "Nonin", "unsubscribe", [address, id]);
+};
+
+Nonin.prototype.stop = function (address, onSuccess, onError) {
+    if (typeof address === "function") {
+        // no address, stops all devices
+        onError = onSuccess;
+        onSuccess = address;
+        address = null;
+    }
+    exec(onSuccess, onError, "Nonin", "stop", address ? [address] : []);
+};
+
+Nonin.prototype.stopAll = function (onSuccess, onError) {
+    exec(onSuccess, onError, "Nonin", "stopAll", []);
+};
+
+Nonin.prototype.getSessions = function (onSuccess, onError) {
+    exec(onSuccess, onError, "Nonin", "getSessions", []);
+};
+
+Nonin.prototype.getStats = function (address, onSuccess, onError) {
+    if (typeof address === "function") {
+        // no address, stats of all devices
+        onError = onSuccess;
+        onSuccess = address;
+        address = null;
+    }
+    exec(onSuccess, onError, "Nonin", "getStats", address ? [address] : []);
+};
+
+Nonin.prototype.startRecording = function (address, options, onSuccess, onError) {
+    if (typeof options === "function") {
+        // options are optional
+        onError = onSuccess;
+        onSuccess = options;
+        options = {};
+    }
+    exec(onSuccess, onError, "Nonin", "startRecording", [address, options || {}]);
 };
 
-Nonin.prototype.stop = function (onSuccess, onError) {
-    exec(onSuccess, onError, "Nonin", "stop", []);
+Nonin.prototype.stopRecording = function (address, onSuccess, onError) {
+    exec(onSuccess, onError, "Nonin", "stopRecording", [address]);
 };
 
 module.exports = new Nonin();
@@ -1,9 +1,10 @@
-
 var exec = require("cordova/exec");
 
 var Nonin = function () {
     this.name = "Nonin";
-	this.timer;
+	this.timers = {};
+	this.subscriptions = {};
+	this.nextSubscription = 1;
 };
 
 Nonin.prototype.isBTON = function (onSuccess, onError) {
@@ -18,9 +19,23 @@ Nonin.prototype.isPaired = function (address, onSuccess, onError) {
     onSuccess(true);
 };
 
-Nonin.prototype.start = function (address, onSuccess, onError) {
-	clearTimeout(this.timer);
-	this.timer = setInterval(function() {
+Nonin.prototype.arePaired = function (addresses, onSuccess, onError) {
+	onSuccess(addresses.map(function () {
+		return true;
+	}));
+};
+
+Nonin.prototype.getPairedDevices = function (onSuccess, onError) {
+	onSuccess([]);
+};
+
+Nonin.prototype.start = function (address, options, onSuccess, onError) {
+	if (typeof options === "function") {
+		onError = onSuccess;
+		onSuccess = options;
+	}
+	clearTimeout(this.timers[address]);
+	this.timers[address] = setInterval(function() {
 		onSuccess({
 			timestamp: new Date().getTime(),
 			spo2: Math.floor(95 + Math.random()*5),
@@ -33,9 +48,77 @@ Nonin.prototype.start = function (address, onSuccess, onError) {
 	}, 500);
 };
 
-Nonin.prototype.stop = function (onSuccess, onError) {
-	clearTimeout(this.timer);
+Nonin.prototype.subscribe = function (address, options, onData, onError) {
+	if (typeof options === "function") {
+		onError = onData;
+		onData = options;
+	}
+	var id = this.nextSubscription++;
+	this.subscriptions[id] = setInterval(function() {
+		onData({
+			timestamp: new Date().getTime(),
+			spo2: Math.floor(95 + Math.random()*5),
+			hr: Math.floor(70 + Math.random()*5),
+			hasArtifacts: false,
+			hasSustainedArtifacts: false,
+			nofinger: false,
+			batterylow: false
+		})
+	}, 500);
+	return id;
+};
+
+Nonin.prototype.unsubscribe = function (address, id, onSuccess, onError) {
+	clearInterval(this.subscriptions[id]);
+	delete this.subscriptions[id];
+	onSuccess(true);
+};
+
+Nonin.prototype.stop = function (address, onSuccess, onError) {
+	if (typeof address === "function") {
+		this.stopAll(address, onSuccess);
+		return;
+	}
+	clearTimeout(this.timers[address]);
+	delete this.timers[address];
 	onSuccess(true);
 };
 
+Nonin.prototype.stopAll = function (onSuccess, onError) {
+	for (var address in this.timers) {
+		clearTimeout(this.timers[address]);
+	}
+	this.timers = {};
+	onSuccess(true);
+};
+
+Nonin.prototype.getSessions = function (onSuccess, onError) {
+	var sessions = [];
+	for (var address in this.timers) {
+		sessions.push({ address: address, active: true });
+	}
+	onSuccess(sessions);
+};
+
+Nonin.prototype.getStats = function (address, onSuccess, onError) {
+	if (typeof address === "function") {
+		onError = onSuccess;
+		onSuccess = address;
+		address = null;
+	}
+	onError("Statistics are not supported in the browser");
+};
+
+Nonin.prototype.startRecording = function (address, options, onSuccess, onError) {
+	if (typeof options === "function") {
+		onError = onSuccess;
+		onSuccess = options;
+	}
+	onError("Recording is not supported in the browser");
+};
+
+Nonin.prototype.stopRecording = function (address, onSuccess, onError) {
+	onSuccess([]);
+};
+
 module.exports = new Nonin();